@@ -25,8 +25,12 @@
 package org.hudsonci.plugins.vault;
 
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
 
 /**
@@ -45,6 +49,19 @@ public class Bundle
 
     private String description;
 
+    private transient BundleCatalog catalog;
+
+    /** Packages by id; rebuilt if the package set is changed other than through this bundle. */
+    private transient Map<UUID,Package> packagesById;
+
+    /** Selected packages by node context fingerprint; cleared when the bundle changes. */
+    private transient Map<String,Package> selections;
+
+    /** Attribute names the package matchers refer to; cleared when the bundle changes. */
+    private transient Set<String> matcherKeys;
+
+    private transient long generation;
+
     public Bundle(final String name) {
         this.name = name;
     }
@@ -54,6 +71,7 @@ public class Bundle
         this.name = name;
         assert bundle != null;
         this.type = bundle.getType();
+        this.description = bundle.getDescription();
         this.packages = bundle.getPackages();
     }
 
@@ -66,7 +84,15 @@ public class Bundle
     }
 
     public void setType(final String type) {
+        String previous = this.type;
         this.type = type;
+        if (catalog != null) {
+            catalog.retype(this, previous);
+        }
+    }
+
+    void setCatalog(final BundleCatalog catalog) {
+        this.catalog = catalog;
     }
 
     public Set<Package> getPackages() {
@@ -76,8 +102,10 @@ public class Bundle
         return packages;
     }
 
-    public void setPackages(final Set<Package> packages) {
+    public synchronized void setPackages(final Set<Package> packages) {
         this.packages = packages;
+        this.packagesById = null;
+        changed();
     }
 
     public Package getPackage(final String id) {
@@ -85,28 +113,95 @@ public class Bundle
         return getPackage(UUID.fromString(id));
     }
 
-    private Package getPackage(final UUID id) {
+    private synchronized Package getPackage(final UUID id) {
         assert id != null;
 
-        if (packages != null) {
+        if (packages == null) {
+            return null;
+        }
+
+        if (packagesById == null || packagesById.size() != packages.size()) {
+            packagesById = new HashMap<UUID,Package>();
             for (Package pkg : packages) {
-                if (id.equals(pkg.getId())) {
-                    return pkg;
-                }
+                packagesById.put(pkg.getId(), pkg);
             }
         }
 
-        return null;
+        return packagesById.get(id);
     }
 
-    public void addPackage(final Package pkg) {
+    public synchronized void addPackage(final Package pkg) {
         assert pkg != null;
-        packages.add(pkg);
+        getPackages().add(pkg);
+        if (packagesById != null) {
+            packagesById.put(pkg.getId(), pkg);
+        }
+        changed();
     }
 
-    public void removePackage(final Package pkg) {
+    public synchronized void removePackage(final Package pkg) {
         assert pkg != null;
-        packages.remove(pkg);
+        getPackages().remove(pkg);
+        if (packagesById != null) {
+            packagesById.remove(pkg.getId());
+        }
+        changed();
+    }
+
+    /**
+     * Note that the packages of the bundle, or their configuration, have changed.
+     */
+    public synchronized void changed() {
+        generation++;
+        selections = null;
+        matcherKeys = null;
+    }
+
+    /**
+     * Returns the sorted names of the node context attributes which the packages of the bundle match on.
+     */
+    public synchronized Set<String> getMatcherKeys() {
+        if (matcherKeys == null) {
+            Set<String> keys = new TreeSet<String>();
+            for (Package pkg : getPackages()) {
+                keys.addAll(pkg.getMatchers().keySet());
+            }
+            matcherKeys = Collections.unmodifiableSet(keys);
+        }
+        return matcherKeys;
+    }
+
+    /**
+     * Changes each time the packages of the bundle, or their configuration, change.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns the package previously selected for the given node context fingerprint, or null.
+     */
+    public synchronized Package getSelection(final String fingerprint) {
+        assert fingerprint != null;
+        return selections != null ? selections.get(fingerprint) : null;
+    }
+
+    /**
+     * Remember the package selected for the given node context fingerprint.
+     *
+     * @param generation    The generation the selection was made from; it is discarded if the bundle has changed since.
+     */
+    public synchronized void setSelection(final String fingerprint, final Package pkg, final long generation) {
+        assert fingerprint != null;
+        assert pkg != null;
+
+        if (generation != this.generation) {
+            return;
+        }
+        if (selections == null) {
+            selections = new HashMap<String,Package>();
+        }
+        selections.put(fingerprint, pkg);
     }
 
     public String getDescription() {
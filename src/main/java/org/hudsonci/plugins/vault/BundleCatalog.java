@@ -0,0 +1,145 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2026 agent
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.hudsonci.plugins.vault;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Indexes bundles by name and type.
+ *
+ * Lookups do not lock; changes replace the affected type list, so lists handed out are never modified.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class BundleCatalog
+{
+    private final Map<String,Bundle> byName = new ConcurrentHashMap<String,Bundle>();
+
+    private final Map<String,List<Bundle>> byType = new ConcurrentHashMap<String,List<Bundle>>();
+
+    BundleCatalog(final Collection<Bundle> bundles) {
+        assert bundles != null;
+
+        // Each type list is sorted once, rather than as each bundle is added
+        Map<String,List<Bundle>> types = new HashMap<String,List<Bundle>>();
+        for (Bundle bundle : bundles) {
+            byName.put(bundle.getName(), bundle);
+            bundle.setCatalog(this);
+
+            String type = bundle.getType();
+            if (type != null) {
+                List<Bundle> list = types.get(type);
+                if (list == null) {
+                    list = new ArrayList<Bundle>();
+                    types.put(type, list);
+                }
+                list.add(bundle);
+            }
+        }
+        for (Map.Entry<String,List<Bundle>> entry : types.entrySet()) {
+            Collections.sort(entry.getValue());
+            byType.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+        }
+    }
+
+    public Bundle get(final String name) {
+        assert name != null;
+        return byName.get(name);
+    }
+
+    /**
+     * Returns the bundles of the given type, sorted by name.
+     */
+    public Collection<Bundle> find(final String type) {
+        assert type != null;
+        List<Bundle> found = byType.get(type);
+        if (found == null) {
+            return Collections.emptyList();
+        }
+        return found;
+    }
+
+    public synchronized void add(final Bundle bundle) {
+        assert bundle != null;
+        byName.put(bundle.getName(), bundle);
+        index(bundle.getType(), bundle);
+        bundle.setCatalog(this);
+    }
+
+    public synchronized void remove(final Bundle bundle) {
+        assert bundle != null;
+        byName.remove(bundle.getName());
+        unindex(bundle.getType(), bundle);
+        bundle.setCatalog(null);
+    }
+
+    /**
+     * Called by the bundle when its type has been changed.
+     */
+    synchronized void retype(final Bundle bundle, final String previous) {
+        assert bundle != null;
+        unindex(previous, bundle);
+        index(bundle.getType(), bundle);
+    }
+
+    private void index(final String type, final Bundle bundle) {
+        if (type == null) {
+            return;
+        }
+
+        List<Bundle> bundles = byType.get(type);
+        List<Bundle> updated = bundles != null ? new ArrayList<Bundle>(bundles) : new ArrayList<Bundle>();
+        int i = Collections.binarySearch(updated, bundle);
+        updated.add(i < 0 ? -i - 1 : i, bundle);
+        byType.put(type, Collections.unmodifiableList(updated));
+    }
+
+    private void unindex(final String type, final Bundle bundle) {
+        if (type == null) {
+            return;
+        }
+
+        List<Bundle> bundles = byType.get(type);
+        if (bundles == null) {
+            return;
+        }
+
+        List<Bundle> updated = new ArrayList<Bundle>(bundles);
+        updated.remove(bundle);
+        if (updated.isEmpty()) {
+            byType.remove(type);
+        }
+        else {
+            byType.put(type, Collections.unmodifiableList(updated));
+        }
+    }
+}
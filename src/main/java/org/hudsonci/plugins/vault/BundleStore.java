@@ -0,0 +1,251 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2026 agent
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.hudsonci.plugins.vault;
+
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.util.AtomicFileWriter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.thoughtworks.xstream.XStream;
+
+/**
+ * Persists each bundle in its own file, so changing one bundle only writes that bundle.
+ *
+ * The index lists the names of the bundles; bundle files which are not in the index are ignored.  Bundles which
+ * fail to load stay in the index, so their files are kept until fixed, and their names can not be reused.
+ *
+ * File names are not case sensitive on every platform, so names which differ only in case are treated as the same.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class BundleStore
+{
+    private static final Logger log = LoggerFactory.getLogger(BundleStore.class);
+
+    private static final String INDEX_FILE = "index";
+
+    private final File dir;
+
+    private final XStream xstream;
+
+    /** Names of bundles in the index which failed to load. */
+    private final Set<String> unloadable = Collections.synchronizedSet(new TreeSet<String>());
+
+    BundleStore(final File dir, final XStream xstream) {
+        assert dir != null;
+        assert xstream != null;
+        this.dir = dir;
+        this.xstream = xstream;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    public boolean exists() {
+        return new File(dir, INDEX_FILE).exists();
+    }
+
+    /**
+     * Load all bundles in the index, reading their files in parallel.
+     */
+    public Set<Bundle> load() throws IOException {
+        final List<String> names = loadIndex();
+        Set<Bundle> bundles = new TreeSet<Bundle>();
+        if (names.isEmpty()) {
+            return bundles;
+        }
+
+        int threads = Math.min(names.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+        {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            public Thread newThread(final Runnable task) {
+                Thread thread = new Thread(task, "vault-bundle-load-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            List<Future<Bundle>> loads = new ArrayList<Future<Bundle>>(names.size());
+            for (final String name : names) {
+                loads.add(executor.submit(new Callable<Bundle>()
+                {
+                    public Bundle call() throws Exception {
+                        return load(name);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < names.size(); i++) {
+                try {
+                    Bundle bundle = loads.get(i).get();
+                    if (bundle != null) {
+                        bundles.add(bundle);
+                    }
+                }
+                catch (ExecutionException e) {
+                    log.error("Failed to load bundle: " + names.get(i), e.getCause());
+                    unloadable.add(names.get(i));
+                }
+                catch (InterruptedException e) {
+                    throw (IOException) new IOException("Interrupted loading bundles").initCause(e);
+                }
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        log.debug("Loaded {} bundles from: {}", bundles.size(), dir);
+
+        return bundles;
+    }
+
+    private Bundle load(final String name) throws IOException {
+        XmlFile file = getFile(name);
+        if (!file.exists()) {
+            log.warn("Missing bundle file: {}", file);
+            return null;
+        }
+
+        Object bundle = file.read();
+        if (!(bundle instanceof Bundle) || !name.equals(((Bundle) bundle).getName())) {
+            throw new IOException("Invalid bundle file: " + file);
+        }
+        return (Bundle) bundle;
+    }
+
+    /**
+     * Check if the given name, ignoring case, is that of a bundle which failed to load.
+     */
+    public boolean isUnloadable(final String name) {
+        assert name != null;
+
+        synchronized (unloadable) {
+            for (String other : unloadable) {
+                if (other.equalsIgnoreCase(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public void save(final Bundle bundle) throws IOException {
+        assert bundle != null;
+
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create directory: " + dir);
+        }
+        getFile(bundle.getName()).write(bundle);
+    }
+
+    public void remove(final String name) {
+        assert name != null;
+
+        XmlFile file = getFile(name);
+        if (file.exists() && !file.getFile().delete()) {
+            log.error("Failed to remove bundle file: {}", file);
+        }
+    }
+
+    /**
+     * Write the index of the named bundles, keeping those which failed to load.
+     */
+    public void saveIndex(final Collection<String> bundleNames) throws IOException {
+        assert bundleNames != null;
+
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create directory: " + dir);
+        }
+
+        Set<String> names = new TreeSet<String>(unloadable);
+        names.addAll(bundleNames);
+
+        AtomicFileWriter writer = new AtomicFileWriter(new File(dir, INDEX_FILE), "UTF-8");
+        try {
+            for (String name : names) {
+                writer.write(name);
+                writer.write('\n');
+            }
+            writer.commit();
+        }
+        finally {
+            writer.abort();
+        }
+    }
+
+    private List<String> loadIndex() throws IOException {
+        List<String> names = new ArrayList<String>();
+
+        File file = new File(dir, INDEX_FILE);
+        if (file.exists()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.length() != 0) {
+                        names.add(line);
+                    }
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+
+        return names;
+    }
+
+    private XmlFile getFile(final String name) {
+        return new XmlFile(xstream, new File(dir, Util.rawEncode(name) + ".xml"));
+    }
+}
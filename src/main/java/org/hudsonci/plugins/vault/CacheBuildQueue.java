@@ -0,0 +1,338 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2026 agent
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.hudsonci.plugins.vault;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonatype.gossip.support.DC;
+
+/**
+ * Builds package caches in the background, at most {@link Vault#getBuildConcurrency} at a time.
+ *
+ * Finished jobs are kept, most recent first, so their outcome can be shown.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class CacheBuildQueue
+{
+    private static final Logger log = LoggerFactory.getLogger(CacheBuildQueue.class);
+
+    private static final int MAX_FINISHED = 20;
+
+    private final Vault vault;
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    private final LinkedList<Job> jobs = new LinkedList<Job>();
+
+    private ThreadPoolExecutor executor;
+
+    public CacheBuildQueue(final Vault vault) {
+        assert vault != null;
+        this.vault = vault;
+    }
+
+    /**
+     * Queue a build of the given package's cache; if one is already queued it is returned instead.
+     */
+    public synchronized Job submit(final Bundle bundle, final Package pkg) {
+        assert bundle != null;
+        assert pkg != null;
+
+        for (Job job : jobs) {
+            if (job.pkg == pkg && job.state == State.QUEUED) {
+                return job;
+            }
+        }
+
+        Job job = new Job(counter.incrementAndGet(), bundle, pkg);
+        jobs.addFirst(job);
+        prune();
+
+        log.debug("Queued cache build: {}", job);
+        job.future = getExecutor().submit(job);
+
+        return job;
+    }
+
+    /**
+     * Returns the queued or running build of the given package, or null if there is none.
+     */
+    public synchronized Job getActive(final Package pkg) {
+        assert pkg != null;
+
+        for (Job job : jobs) {
+            if (job.pkg == pkg && !job.isFinished()) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    public synchronized Job getJob(final int id) {
+        for (Job job : jobs) {
+            if (job.id == id) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    public synchronized List<Job> getJobs() {
+        return Collections.unmodifiableList(new ArrayList<Job>(jobs));
+    }
+
+    public synchronized boolean isRunning() {
+        for (Job job : jobs) {
+            if (!job.isFinished()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Cancel any queued or running build of the given package.
+     */
+    public void cancel(final Package pkg) {
+        Job job = getActive(pkg);
+        if (job != null) {
+            job.cancel();
+        }
+    }
+
+    private void prune() {
+        int finished = 0;
+        for (Iterator<Job> iter = jobs.iterator(); iter.hasNext();) {
+            if (iter.next().isFinished() && ++finished > MAX_FINISHED) {
+                iter.remove();
+            }
+        }
+    }
+
+    private synchronized ThreadPoolExecutor getExecutor() {
+        int threads = vault.getBuildConcurrency();
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory()
+                {
+                    private final AtomicInteger counter = new AtomicInteger();
+
+                    public Thread newThread(final Runnable task) {
+                        Thread thread = new Thread(task, "vault-cache-build-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        else if (executor.getMaximumPoolSize() != threads) {
+            // Order matters so that core never exceeds maximum
+            if (threads > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(threads);
+                executor.setCorePoolSize(threads);
+            }
+            else {
+                executor.setCorePoolSize(threads);
+                executor.setMaximumPoolSize(threads);
+            }
+        }
+        return executor;
+    }
+
+    public static enum State
+    {
+        QUEUED,
+        BUILDING,
+        BUILT,
+        FAILED,
+        CANCELLED
+    }
+
+    /**
+     * A build of a single package cache.
+     */
+    public class Job
+        implements Runnable
+    {
+        private final int id;
+
+        private final Bundle bundle;
+
+        private final Package pkg;
+
+        private final AtomicLong bytes = new AtomicLong();
+
+        private volatile State state = State.QUEUED;
+
+        private volatile boolean cancelled;
+
+        private volatile long started;
+
+        private volatile long finished;
+
+        private volatile String message;
+
+        private volatile Future<?> future;
+
+        private Job(final int id, final Bundle bundle, final Package pkg) {
+            this.id = id;
+            this.bundle = bundle;
+            this.pkg = pkg;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getBundleName() {
+            return bundle.getName();
+        }
+
+        public UUID getPackageId() {
+            return pkg.getId();
+        }
+
+        public String getPath() {
+            return pkg.getPath();
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public boolean isFinished() {
+            return state != State.QUEUED && state != State.BUILDING;
+        }
+
+        public boolean isQueued() {
+            return state == State.QUEUED;
+        }
+
+        /**
+         * Returns the number of bytes of archive written so far.
+         */
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        /**
+         * Returns the time spent building so far, in milliseconds.
+         */
+        public long getDuration() {
+            if (started == 0) {
+                return 0;
+            }
+            return (finished != 0 ? finished : System.currentTimeMillis()) - started;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * Stop the build; a running build is interrupted, leaving the previous cache in place.
+         */
+        public void cancel() {
+            cancelled = true;
+
+            Future<?> current = future;
+            if (current != null) {
+                current.cancel(true);
+            }
+
+            // A job which never started will not run to record this itself
+            synchronized (this) {
+                if (state == State.QUEUED) {
+                    finish(State.CANCELLED, null);
+                }
+            }
+        }
+
+        public void run() {
+            synchronized (this) {
+                if (cancelled || state != State.QUEUED) {
+                    return;
+                }
+                state = State.BUILDING;
+                started = System.currentTimeMillis();
+            }
+
+            DC.push(String.format("%s,%s", bundle.getName(), pkg.getId()));
+            try {
+                vault.buildPackageCache(bundle, pkg, bytes);
+                vault.save(bundle);
+                finish(State.BUILT, null);
+            }
+            catch (InterruptedIOException e) {
+                log.info("Cache build interrupted: {}", this);
+                finish(cancelled ? State.CANCELLED : State.FAILED, e.toString());
+            }
+            catch (Exception e) {
+                log.error("Failed to build package cache: " + pkg.getId(), e);
+                finish(State.FAILED, e.toString());
+            }
+            finally {
+                // An error is left to propagate, but the job must not look like it is still building
+                if (state == State.BUILDING) {
+                    finish(State.FAILED, "Build aborted by an error");
+                }
+                DC.pop();
+            }
+        }
+
+        private void finish(final State state, final String message) {
+            this.message = message;
+            this.finished = System.currentTimeMillis();
+            this.state = state;
+        }
+
+        @Override
+        public String toString() {
+            return "Job{" +
+                "id=" + id +
+                ", bundle='" + bundle.getName() + '\'' +
+                ", package=" + pkg.getId() +
+                ", state=" + state +
+                '}';
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2026 agent
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.hudsonci.plugins.vault;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Decides how each file of a package is compressed in the package cache.
+ *
+ * Content which is already compressed (archives, images) gains almost nothing from deflating again, but still costs
+ * CPU when packing on the master and unpacking on the node; such files are stored instead.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class CompressionPolicy
+    implements Serializable
+{
+    /** Level which means store without compression. */
+    public static final int STORE = Deflater.NO_COMPRESSION;
+
+    public static final String DEFAULT_STORE_EXTENSIONS = "jar,war,ear,zip,jmod,gz,tgz,bz2,xz,7z,png,jpg,jpeg,gif";
+
+    /** Samples with more bits of entropy per byte than this are considered already compressed. */
+    private static final double ENTROPY_THRESHOLD = 7.5;
+
+    private static final int SAMPLE_SIZE = 16 * 1024;
+
+    /** Smaller files are always deflated; not worth the extra read. */
+    private static final long MIN_SAMPLE_FILE_SIZE = 64 * 1024;
+
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+    private String storeExtensions;
+
+    private boolean sampleEntropy = true;
+
+    private transient Set<String> extensions;
+
+    /**
+     * The deflate level for files which are compressed; {@link #STORE} stores everything.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    public void setLevel(final int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        this.level = level;
+    }
+
+    /**
+     * Comma separated file extensions which are always stored.
+     */
+    public String getStoreExtensions() {
+        if (storeExtensions == null) {
+            return DEFAULT_STORE_EXTENSIONS;
+        }
+        return storeExtensions;
+    }
+
+    public void setStoreExtensions(final String extensions) {
+        this.storeExtensions = extensions;
+        this.extensions = null;
+    }
+
+    public boolean isSampleEntropy() {
+        return sampleEntropy;
+    }
+
+    public void setSampleEntropy(final boolean sampleEntropy) {
+        this.sampleEntropy = sampleEntropy;
+    }
+
+    private Set<String> getExtensions() {
+        if (extensions == null) {
+            Set<String> set = new HashSet<String>();
+            for (String ext : getStoreExtensions().split("[,\\s]+")) {
+                ext = ext.trim().toLowerCase();
+                if (ext.startsWith(".")) {
+                    ext = ext.substring(1);
+                }
+                if (ext.length() != 0) {
+                    set.add(ext);
+                }
+            }
+            extensions = set;
+        }
+        return extensions;
+    }
+
+    /**
+     * Select the compression level for the given file; {@link #STORE} if it should not be compressed.
+     */
+    public int selectLevel(final File file) throws IOException {
+        assert file != null;
+
+        if (level == STORE) {
+            return STORE;
+        }
+
+        String name = file.getName();
+        int i = name.lastIndexOf('.');
+        if (i != -1 && getExtensions().contains(name.substring(i + 1).toLowerCase())) {
+            return STORE;
+        }
+
+        if (sampleEntropy && file.length() >= MIN_SAMPLE_FILE_SIZE && sampleEntropy(file) > ENTROPY_THRESHOLD) {
+            return STORE;
+        }
+
+        return level;
+    }
+
+    /**
+     * Returns the Shannon entropy, in bits per byte, of a sample from the middle of the file.
+     */
+    private double sampleEntropy(final File file) throws IOException {
+        byte[] sample = new byte[SAMPLE_SIZE];
+        int length;
+
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            input.seek(Math.max(0, input.length() / 2 - SAMPLE_SIZE / 2));
+            length = input.read(sample);
+        }
+        finally {
+            input.close();
+        }
+
+        if (length <= 0) {
+            return 0;
+        }
+
+        long[] counts = new long[256];
+        for (int i = 0; i < length; i++) {
+            counts[sample[i] & 0xFF]++;
+        }
+
+        return entropy(counts, length);
+    }
+
+    /**
+     * Returns the Shannon entropy, in bits per byte, of content with the given byte counts.
+     */
+    public static double entropy(final long[] counts, final long length) {
+        assert counts != null;
+
+        if (length <= 0) {
+            return 0;
+        }
+
+        double entropy = 0;
+        for (long count : counts) {
+            if (count != 0) {
+                double p = (double) count / length;
+                entropy -= p * Math.log(p);
+            }
+        }
+
+        return entropy / Math.log(2);
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionPolicy{" +
+            "level=" + level +
+            ", storeExtensions='" + getStoreExtensions() + '\'' +
+            ", sampleEntropy=" + sampleEntropy +
+            '}';
+    }
+}
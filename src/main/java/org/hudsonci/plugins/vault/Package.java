@@ -26,7 +26,16 @@ package org.hudsonci.plugins.vault;
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.regex.PatternSyntaxException;
+
+import org.hudsonci.plugins.vault.util.ArchiveSummary;
+import org.hudsonci.plugins.vault.util.ValueMatcher;
 
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
@@ -51,8 +60,23 @@ public class Package
 
     private String description;
 
+    private CompressionPolicy compression;
+
+    private String digest;
+
+    private String archiveDigest;
+
+    private long lastInstalled;
+
     private transient File cacheFile;
 
+    /** Whether the cache file exists; null until known. */
+    private transient volatile Boolean cached;
+
+    private transient ArchiveSummary buildSummary;
+
+    private transient volatile Map<String,List<ValueMatcher>> matchers;
+
     public Package() {
         id = UUID.randomUUID();
     }
@@ -94,6 +118,56 @@ public class Package
 
     public void setProperties(final Multimap<String, String> properties) {
         this.properties = properties;
+        this.matchers = null;
+    }
+
+    /**
+     * Check that every value of the given properties compiles, so invalid values are rejected when configured rather
+     * than failing each selection.
+     *
+     * @throws VaultException   Naming the first invalid value.
+     */
+    public static void checkProperties(final Multimap<String,String> properties) {
+        assert properties != null;
+
+        for (Map.Entry<String,String> entry : properties.entries()) {
+            try {
+                ValueMatcher.compile(entry.getValue());
+            }
+            catch (PatternSyntaxException e) {
+                throw new VaultException("Invalid value of package property: " + entry.getKey() + "; "
+                    + e.getDescription(), e);
+            }
+        }
+    }
+
+    /**
+     * Returns the compiled {@link #getProperties properties}; property key to the matchers of its values.
+     *
+     * Compiled on first use, and again after {@link #changed}.
+     */
+    public Map<String,List<ValueMatcher>> getMatchers() {
+        Map<String,List<ValueMatcher>> result = matchers;
+        if (result == null) {
+            result = new HashMap<String,List<ValueMatcher>>();
+            Multimap<String,String> props = getProperties();
+            for (String key : props.keySet()) {
+                List<ValueMatcher> values = new ArrayList<ValueMatcher>();
+                for (String value : props.get(key)) {
+                    values.add(ValueMatcher.compile(value));
+                }
+                result.put(key, values);
+            }
+            matchers = result = Collections.unmodifiableMap(result);
+        }
+        return result;
+    }
+
+    /**
+     * Discard state derived from the configuration; call after modifying it.
+     */
+    public void changed() {
+        matchers = null;
     }
 
     public String getDescription() {
@@ -104,16 +178,89 @@ public class Package
         this.description = description;
     }
 
+    public CompressionPolicy getCompression() {
+        if (compression == null) {
+            compression = new CompressionPolicy();
+        }
+        return compression;
+    }
+
+    public void setCompression(final CompressionPolicy compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Identifies the content of the current cache; unchanged when a rebuild produces the same files.
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    public void setDigest(final String digest) {
+        this.digest = digest;
+    }
+
+    /**
+     * The SHA-256 (hex) of the current cache archive; installs verify the archive they receive against the digest
+     * recorded with the cache they read.
+     */
+    public String getArchiveDigest() {
+        return archiveDigest;
+    }
+
+    public void setArchiveDigest(final String archiveDigest) {
+        this.archiveDigest = archiveDigest;
+    }
+
+    /**
+     * When the package was last installed, or found installed, on a node; 0 if never.
+     */
+    public long getLastInstalled() {
+        return lastInstalled;
+    }
+
+    public void setLastInstalled(final long time) {
+        this.lastInstalled = time;
+    }
+
     public File getCacheFile() {
         return cacheFile;
     }
 
     public void setCacheFile(final File file) {
         this.cacheFile = file;
+        this.cached = null;
+    }
+
+    /**
+     * Statistics of the last cache build, if built since startup.
+     */
+    public ArchiveSummary getBuildSummary() {
+        return buildSummary;
     }
 
+    public void setBuildSummary(final ArchiveSummary summary) {
+        this.buildSummary = summary;
+    }
+
+    /**
+     * Whether the package cache exists; checked on disk only until it is known.
+     */
     public boolean isCached() {
-        return getCacheFile() != null && getCacheFile().exists();
+        Boolean result = cached;
+        if (result == null) {
+            File file = getCacheFile();
+            result = file != null && file.exists();
+            cached = result;
+        }
+        return result;
+    }
+
+    /**
+     * Record whether the package cache exists, as found by whoever created, removed or looked for it.
+     */
+    void setCached(final boolean cached) {
+        this.cached = cached;
     }
     
     @Override
@@ -124,6 +271,9 @@ public class Package
             ", includes='" + includes + '\'' +
             ", excludes='" + excludes + '\'' +
             ", properties=" + properties +
+            ", compression=" + compression +
+            ", digest='" + digest + '\'' +
+            ", archiveDigest='" + archiveDigest + '\'' +
             ", cacheFile=" + cacheFile +
             '}';
     }
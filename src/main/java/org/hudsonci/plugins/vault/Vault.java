@@ -29,13 +29,33 @@ import hudson.model.Hudson;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.hudsonci.plugins.vault.util.ArchiveManifest;
 import org.hudsonci.plugins.vault.util.Archiver;
+import org.hudsonci.plugins.vault.util.ChunkStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,6 +73,8 @@ public class Vault
 
     private transient Archiver archiver;
 
+    private transient ChunkStore chunkStore;
+
     private File storeDir;
 
     private transient File rootDir;
@@ -61,7 +83,39 @@ public class Vault
 
     private transient File uploadDir;
 
-    private final Set<Bundle> bundles = new TreeSet<Bundle>();
+    private int archiveThreads;
+
+    private int pushConcurrency;
+
+    private int buildConcurrency;
+
+    private int cacheQuota;
+
+    private transient CacheBuildQueue buildQueue;
+
+    private transient volatile BundleCatalog catalog;
+
+    /** Package cache builds in progress, by cache file. */
+    private static final ConcurrentMap<String,FutureTask<File>> builds = new ConcurrentHashMap<String,FutureTask<File>>();
+
+    /** Held shared while a package cache is built or removed, and exclusively while the cache directory is swept. */
+    private static final ReadWriteLock cacheLock = new ReentrantReadWriteLock();
+
+    private static final Object evictLock = new Object();
+
+    private static final String RECIPE_SUFFIX = ".recipe";
+
+    /** Installs are recorded on the package at most this often, to avoid saving the bundle for each one. */
+    private static final long INSTALLED_RESOLUTION = 60 * 1000;
+
+    /** Bundles as persisted in the plugin configuration, before each had its own file; only read to migrate them. */
+    private Set<Bundle> bundles;
+
+    private transient Set<Bundle> loadedBundles;
+
+    private transient BundleStore bundleStore;
+
+    private transient VaultSaver saver;
 
     public Vault(final VaultPlugin plugin) {
         assert plugin != null;
@@ -73,18 +127,60 @@ public class Vault
         // Re-attach to our plugin, needed for save()
         plugin = Hudson.getInstance().getPlugin(VaultPlugin.class);
 
-        // Re-attach package cache file ref
-        for (Bundle bundle : bundles) {
-            for (Package pkg : bundle.getPackages()) {
-                pkg.setCacheFile(getCacheFile(bundle, pkg));
-            }
-        }
-
         return this;
     }
 
+    VaultPlugin getPlugin() {
+        return plugin;
+    }
+
+    private synchronized VaultSaver getSaver() {
+        if (saver == null) {
+            saver = new VaultSaver(this);
+        }
+        return saver;
+    }
+
+    /**
+     * Save the vault configuration and all bundles, shortly; changes made meanwhile are saved together.
+     */
     public void save() throws IOException {
-        plugin.save();
+        VaultSaver saver = getSaver();
+        saver.settingsChanged();
+        for (Bundle bundle : getBundles()) {
+            saver.bundleAdded(bundle);
+        }
+    }
+
+    /**
+     * Save only the given bundle, shortly; changes made meanwhile are saved together.
+     */
+    public void save(final Bundle bundle) throws IOException {
+        assert bundle != null;
+        getSaver().bundleChanged(bundle);
+    }
+
+    /**
+     * Save the vault configuration, and any changes waiting to be saved, now.
+     */
+    public void saveNow() throws IOException {
+        VaultSaver saver = getSaver();
+        saver.settingsChanged();
+        saver.flush();
+    }
+
+    /**
+     * Save any changes waiting to be saved, and stop saving in the background.
+     */
+    void close() throws IOException {
+        VaultSaver saver;
+        synchronized (this) {
+            saver = this.saver;
+        }
+        if (saver != null) {
+            saver.flush();
+            saver.shutdown();
+        }
     }
 
     private static Vault vault;
@@ -105,6 +201,15 @@ public class Vault
 
     public void setStoreDir(final File dir) {
         this.storeDir = dir;
+
+        // Bundles are written to the new directory when next saved
+        synchronized (this) {
+            bundleStore = null;
+        }
+    }
+
+    public File getBundlesDir() {
+        return new File(getStoreDir(), "bundles");
     }
 
     public File getRootDir() {
@@ -131,6 +236,10 @@ public class Vault
         this.cacheDir = dir;
     }
 
+    public File getChunksDir() {
+        return new File(getCacheDir(), "chunks");
+    }
+
     public File getUploadsDir() {
         if (uploadDir == null) {
             // don't save, just return
@@ -143,39 +252,212 @@ public class Vault
         this.uploadDir = dir;
     }
 
+    /**
+     * Returns the number of threads used to compress package archives; defaults to the number of processors.
+     */
+    public int getArchiveThreads() {
+        if (archiveThreads <= 0) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return archiveThreads;
+    }
+
+    public void setArchiveThreads(final int threads) {
+        this.archiveThreads = threads;
+        if (archiver != null) {
+            archiver.setThreads(getArchiveThreads());
+        }
+    }
+
+    /**
+     * Returns the maximum number of nodes a bundle is pushed to at the same time; defaults to 16.
+     */
+    public int getPushConcurrency() {
+        if (pushConcurrency <= 0) {
+            return 16;
+        }
+        return pushConcurrency;
+    }
+
+    public void setPushConcurrency(final int concurrency) {
+        this.pushConcurrency = concurrency;
+    }
+
+    /**
+     * Returns the maximum number of package caches built in the background at the same time; defaults to 2.
+     */
+    public int getBuildConcurrency() {
+        if (buildConcurrency <= 0) {
+            return 2;
+        }
+        return buildConcurrency;
+    }
+
+    public void setBuildConcurrency(final int concurrency) {
+        this.buildConcurrency = concurrency;
+    }
+
+    /**
+     * Returns the size in megabytes the package caches are kept within; 0 if unlimited, which is the default.
+     */
+    public int getCacheQuota() {
+        if (cacheQuota < 0) {
+            return 0;
+        }
+        return cacheQuota;
+    }
+
+    public void setCacheQuota(final int megabytes) {
+        this.cacheQuota = megabytes;
+    }
+
+    public synchronized CacheBuildQueue getBuildQueue() {
+        if (buildQueue == null) {
+            buildQueue = new CacheBuildQueue(this);
+        }
+        return buildQueue;
+    }
+
+    /**
+     * Returns a snapshot of the bundles, taken under the lock which adding and removing them holds.
+     */
     public Collection<Bundle> getBundles() {
-        return bundles;
+        Set<Bundle> bundles = getLoadedBundles();
+        synchronized (bundles) {
+            return new ArrayList<Bundle>(bundles);
+        }
     }
 
-    public Bundle getBundle(final String name) {
-        assert name != null;
+    synchronized BundleStore getBundleStore() {
+        if (bundleStore == null) {
+            bundleStore = new BundleStore(getBundlesDir(), VaultPlugin.XSTREAM);
+        }
+        return bundleStore;
+    }
 
-        for (Bundle bundle : bundles) {
-            if (name.equals(bundle.getName())) {
-                return bundle;
+    private synchronized Set<Bundle> getLoadedBundles() {
+        if (loadedBundles == null) {
+            try {
+                loadedBundles = loadBundles();
+            }
+            catch (IOException e) {
+                throw new VaultException("Failed to load bundles", e);
             }
         }
-        
-        return null;
+        return loadedBundles;
     }
 
-    public Collection<Bundle> findBundles(final String type) {
-        Collection<Bundle> bundles = getBundles();
+    private Set<Bundle> loadBundles() throws IOException {
+        BundleStore store = getBundleStore();
+        Set<Bundle> result;
 
-        // w/o type, we will show all bundles
-        if (type == null) {
-            return bundles;
+        if (store.exists()) {
+            result = store.load();
         }
+        else {
+            // Move bundles out of the plugin configuration, into their own files
+            result = new TreeSet<Bundle>();
+            if (bundles != null) {
+                result.addAll(bundles);
+            }
+            log.info("Migrating {} bundles to: {}", result.size(), store.getDir());
 
-        // else, limit the bundles to those with matching types
-        Collection<Bundle> found = new ArrayList<Bundle>();
+            List<String> names = new ArrayList<String>();
+            for (Bundle bundle : result) {
+                store.save(bundle);
+                names.add(bundle.getName());
+            }
+            store.saveIndex(names);
+
+            if (bundles != null) {
+                bundles = null;
+                plugin.save();
+            }
+        }
+
+        // Re-attach package cache file ref
+        for (Bundle bundle : result) {
+            for (Package pkg : bundle.getPackages()) {
+                pkg.setCacheFile(getCacheFile(bundle, pkg));
+            }
+        }
+
+        checkCaches(result);
+
+        return result;
+    }
+
+    /**
+     * Find which packages are cached in the background, listing the cache directory once instead of checking the file
+     * of each package.  Packages asked about before this completes are checked individually.
+     */
+    private void checkCaches(final Collection<Bundle> bundles) {
+        final List<Package> packages = new ArrayList<Package>();
         for (Bundle bundle : bundles) {
-            if (type.equals(bundle.getType())) {
-                found.add(bundle);
+            packages.addAll(bundle.getPackages());
+        }
+
+        Thread thread = new Thread("vault-cache-check")
+        {
+            @Override
+            public void run() {
+                File dir = getCacheDir();
+                String[] names = dir.list();
+                Set<String> files = new HashSet<String>();
+                if (names != null) {
+                    files.addAll(Arrays.asList(names));
+                }
+
+                int cached = 0;
+                for (Package pkg : packages) {
+                    File file = pkg.getCacheFile();
+                    if (file != null && dir.equals(file.getParentFile())) {
+                        boolean exists = files.contains(file.getName());
+                        // Unless built or removed meanwhile
+                        synchronized (pkg) {
+                            if (file == pkg.getCacheFile()) {
+                                pkg.setCached(exists);
+                            }
+                        }
+                        if (exists) {
+                            cached++;
+                        }
+                    }
+                }
+
+                log.debug("Found {} of {} packages cached", cached, packages.size());
             }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private BundleCatalog getCatalog() {
+        BundleCatalog result = catalog;
+        if (result == null) {
+            synchronized (this) {
+                if (catalog == null) {
+                    catalog = new BundleCatalog(getBundles());
+                }
+                result = catalog;
+            }
+        }
+        return result;
+    }
+
+    public Bundle getBundle(final String name) {
+        assert name != null;
+        return getCatalog().get(name);
+    }
+
+    public Collection<Bundle> findBundles(final String type) {
+        // w/o type, we will show all bundles
+        if (type == null) {
+            return getBundles();
         }
 
-        return found;
+        // else, limit the bundles to those with matching types
+        return getCatalog().find(type);
     }
 
     public Bundle addBundle(final Bundle bundle) throws Exception {
@@ -183,29 +465,54 @@ public class Vault
 
         log.info("Creating bundle: {}", bundle);
 
-        if (getBundle(bundle.getName()) != null) {
-            throw new DuplicateBundleException(bundle.getName());
-        }
+        // Not within the bundles lock, as these take the vault lock, which is held while listing the bundles
+        BundleCatalog catalog = getCatalog();
+        BundleStore store = getBundleStore();
+        Set<Bundle> bundles = getLoadedBundles();
+        synchronized (bundles) {
+            checkName(bundle.getName(), store);
 
-        bundles.add(bundle);
+            bundles.add(bundle);
+            catalog.add(bundle);
+        }
 
-        save();
+        getSaver().bundleAdded(bundle);
 
         return bundle;
     }
 
-    public void removeBundle(final String name) throws Exception {
-        Bundle bundle = getBundle(name);
+    /**
+     * Make sure a new bundle can be given the name; bundle files are named after their bundle, so the name must also
+     * differ by more than case from other bundles, including those which failed to load.
+     */
+    private void checkName(final String name, final BundleStore store) {
+        if (store.isUnloadable(name)) {
+            throw new DuplicateBundleException(name);
+        }
+        for (Bundle other : getBundles()) {
+            if (other.getName().equalsIgnoreCase(name)) {
+                throw new DuplicateBundleException(name);
+            }
+        }
+    }
 
+    public void removeBundle(final String name) throws Exception {
         log.info("Removing bundle: {}", name);
 
-        if (bundle == null) {
-            throw new NoSuchBundleException(name);
-        }
+        Bundle bundle;
+        BundleCatalog catalog = getCatalog();
+        Set<Bundle> bundles = getLoadedBundles();
+        synchronized (bundles) {
+            bundle = catalog.get(name);
+            if (bundle == null) {
+                throw new NoSuchBundleException(name);
+            }
 
-        bundles.remove(bundle);
+            bundles.remove(bundle);
+            catalog.remove(bundle);
+        }
 
-        save();
+        getSaver().bundleRemoved(name);
 
         for (Package pkg : bundle.getPackages()) {
             removePackageCache(bundle, pkg);
@@ -218,34 +525,51 @@ public class Vault
 
         log.info("Renaming bundle: {} -> {}", source, target);
 
-        Bundle bundle = getBundle(source);
-        if (bundle == null) {
-            throw new NoSuchBundleException(source);
-        }
-
-        if (getBundle(target) != null) {
-            throw new DuplicateBundleException(source);
-        }
+        Bundle previous, bundle;
+        BundleCatalog catalog = getCatalog();
+        BundleStore store = getBundleStore();
+        Set<Bundle> bundles = getLoadedBundles();
+        synchronized (bundles) {
+            previous = catalog.get(source);
+            if (previous == null) {
+                throw new NoSuchBundleException(source);
+            }
 
-        bundles.remove(bundle);
-        bundle = new Bundle(target, bundle);
-        bundles.add(bundle);
+            // Including to the same name in another case; the new file would be the old one, removed once saved
+            checkName(target, store);
 
-        save();
+            bundles.remove(previous);
+            catalog.remove(previous);
+            bundle = new Bundle(target, previous);
+            bundles.add(bundle);
+            catalog.add(bundle);
+        }
 
-        // Remove cache, let installation rebuild as needed
-        for (Package pkg : bundle.getPackages()) {
-            removePackageCache(bundle, pkg);
+        // Remove cache by the previous bundle, which is still named after the source; rebuilt by installs as needed.
+        // Not while holding the bundles, which sweeps take while holding the cache lock
+        for (Package pkg : previous.getPackages()) {
+            removePackageCache(previous, pkg);
         }
+
+        getSaver().bundleRemoved(source);
+        getSaver().bundleAdded(bundle);
     }
 
-    private Archiver getArchiver() {
+    private synchronized Archiver getArchiver() {
         if (archiver == null) {
             archiver = new Archiver();
+            archiver.setThreads(getArchiveThreads());
         }
         return archiver;
     }
 
+    private synchronized ChunkStore getChunkStore() {
+        if (chunkStore == null) {
+            chunkStore = new ChunkStore(getChunksDir());
+        }
+        return chunkStore;
+    }
+
     public File resolvePath(String path) {
         assert path != null;
 
@@ -259,7 +583,15 @@ public class Vault
         assert bundle != null;
         assert pkg != null;
 
-        String name = String.format("%s,%s.zip", bundle.getName(), pkg.getId());
+        String name = String.format("%s,%s%s", bundle.getName(), pkg.getId(), RECIPE_SUFFIX);
+        return new File(getCacheDir(), name);
+    }
+
+    private File getManifestFile(final Bundle bundle, final Package pkg) {
+        assert bundle != null;
+        assert pkg != null;
+
+        String name = String.format("%s,%s.manifest", bundle.getName(), pkg.getId());
         return new File(getCacheDir(), name);
     }
 
@@ -270,43 +602,493 @@ public class Vault
     }
 
     public File buildPackageCache(final Bundle bundle, final Package pkg) throws IOException {
+        return buildPackageCache(bundle, pkg, null);
+    }
+
+    /**
+     * Build the cache of the given package on the calling thread; interrupting it stops the build, leaving the
+     * previous cache in place.
+     *
+     * Only one build of a package cache runs at a time; callers while one is running wait for, and share, its result.
+     * The previous cache remains usable until the new one replaces it.
+     *
+     * @param progress  Incremented by the number of bytes of archive written; may be null.
+     */
+    public File buildPackageCache(final Bundle bundle, final Package pkg, final AtomicLong progress)
+        throws IOException
+    {
         assert bundle != null;
         assert pkg != null;
 
-        File file = getCacheFile(bundle, pkg);
-        log.info("Building package cache: {}", file);
+        String key = getCacheFile(bundle, pkg).getAbsolutePath();
+        while (true) {
+            FutureTask<File> build = new FutureTask<File>(new Callable<File>()
+            {
+                public File call() throws Exception {
+                    return doBuildPackageCache(bundle, pkg, progress);
+                }
+            });
+
+            FutureTask<File> current = builds.putIfAbsent(key, build);
+            if (current == null) {
+                try {
+                    build.run();
+                }
+                finally {
+                    builds.remove(key, build);
+                }
+                current = build;
+
+                evictPackageCaches();
+            }
+            else {
+                log.info("Waiting for package cache build in progress: {}", key);
+            }
 
-        if (file.exists()) {
-            if (!file.delete()) {
-                log.error("Failed to remove old cache: {}", file);
+            try {
+                return current.get();
             }
+            catch (InterruptedException e) {
+                throw (IOException) new InterruptedIOException().initCause(e);
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (current != build && cause instanceof InterruptedIOException) {
+                    // The build we joined was cancelled; we still want ours
+                    continue;
+                }
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw (IOException) new IOException("Failed to build package cache: " + key).initCause(cause);
+            }
+        }
+    }
+
+    private File doBuildPackageCache(final Bundle bundle, final Package pkg, final AtomicLong progress)
+        throws IOException
+    {
+        cacheLock.readLock().lock();
+        try {
+            return buildPackageCacheFiles(bundle, pkg, progress);
+        }
+        finally {
+            cacheLock.readLock().unlock();
         }
+    }
+
+    private File buildPackageCacheFiles(final Bundle bundle, final Package pkg, final AtomicLong progress)
+        throws IOException
+    {
+        File file = getCacheFile(bundle, pkg);
+        log.info("Building package cache: {}", file);
 
         File source = getSourceDir(pkg);
         if (!source.exists()) {
             throw new FileNotFoundException(source.getAbsolutePath());
         }
 
-        getArchiver().archive(pkg, file, source);
+        File dir = getCacheDir();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create directory: " + dir);
+        }
 
-        pkg.setCacheFile(file);
+        // Reuse compressed entries of the previous generation where the source files have not changed
+        File manifestFile = getManifestFile(bundle, pkg);
+        ArchiveManifest previous = null;
+        InputStream previousArchive = null;
+        if (file.exists() && manifestFile.exists()) {
+            try {
+                previous = ArchiveManifest.load(manifestFile);
+                previousArchive = getChunkStore().open(ChunkStore.Recipe.load(file));
+            }
+            catch (IOException e) {
+                log.warn("Unable to use previous package cache; rebuilding fully", e);
+                previous = null;
+            }
+        }
+
+        // Chunk the archive as it is written, keeping only the chunks we don't already have
+        ChunkStore.Writer writer = getChunkStore().writer();
+        ArchiveManifest manifest;
+        ChunkStore.Recipe recipe;
+        boolean stored = false;
+        try {
+            try {
+                manifest = getArchiver().archive(pkg, writer, source, previous, previousArchive, progress);
+            }
+            finally {
+                if (previousArchive != null) {
+                    previousArchive.close();
+                }
+            }
+            recipe = writer.finish();
+            stored = true;
+        }
+        finally {
+            if (!stored) {
+                writer.abort();
+            }
+        }
+
+        // Switch to the new generation with renames, so readers never see a missing or partial cache
+        ChunkStore.Recipe previousRecipe = file.exists() ? ChunkStore.Recipe.load(file) : null;
+        recipe.setDigest(manifest.getArchiveDigest());
+        File recipeTemp = new File(dir, file.getName() + ".tmp");
+        File manifestTemp = new File(dir, manifestFile.getName() + ".tmp");
+        boolean switched = false;
+        try {
+            recipe.save(recipeTemp);
+            manifest.save(manifestTemp);
+            replace(recipeTemp, file);
+            replace(manifestTemp, manifestFile);
+            switched = true;
+        }
+        finally {
+            if (!switched) {
+                recipeTemp.delete();
+                manifestTemp.delete();
+                getChunkStore().release(recipe);
+            }
+        }
+
+        // Release the previous generation after storing the new one, so shared chunks are kept
+        if (previousRecipe != null) {
+            getChunkStore().release(previousRecipe);
+        }
+        log.debug("Package cache: {}", recipe);
+        log.info("Built package cache: {}; {}", file.getName(), manifest.getSummary());
+
+        String digest = manifest.getDigest();
+        if (digest.equals(pkg.getDigest())) {
+            log.info("Package content is unchanged: {}", digest);
+        }
+
+        synchronized (pkg) {
+            pkg.setCacheFile(file);
+            pkg.setCached(true);
+        }
+        pkg.setDigest(digest);
+        pkg.setArchiveDigest(manifest.getArchiveDigest());
+
+        // Package configuration may have changed; matchers need to be compiled and selections made again
+        pkg.changed();
+        bundle.changed();
+        pkg.setBuildSummary(manifest.getSummary());
 
         return file;
     }
 
+    private void replace(final File source, final File target) throws IOException {
+        // Windows will not rename over an existing file
+        if (!source.renameTo(target) && !(target.delete() && source.renameTo(target))) {
+            throw new IOException("Failed to replace: " + target);
+        }
+    }
+
     public void removePackageCache(final Bundle bundle, final Package pkg) {
         assert bundle != null;
         assert pkg != null;
 
+        getBuildQueue().cancel(pkg);
+
+        deletePackageCache(bundle, pkg);
+        pkg.setDigest(null);
+        pkg.setArchiveDigest(null);
+    }
+
+    /**
+     * Delete the cache files of the given package, and mark it as not cached.
+     */
+    private void deletePackageCache(final Bundle bundle, final Package pkg) {
+        cacheLock.readLock().lock();
+        try {
+            deletePackageCacheFiles(bundle, pkg);
+        }
+        finally {
+            cacheLock.readLock().unlock();
+        }
+
+        synchronized (pkg) {
+            pkg.setCacheFile(null);
+            pkg.setCached(false);
+        }
+    }
+
+    private void deletePackageCacheFiles(final Bundle bundle, final Package pkg) {
         File file = getCacheFile(bundle, pkg);
         log.info("Removing package cache: {}", file);
 
         if (file.exists()) {
+            try {
+                getChunkStore().release(ChunkStore.Recipe.load(file));
+            }
+            catch (IOException e) {
+                log.error("Failed to release cache chunks: " + file, e);
+            }
+
             if (!file.delete()) {
                 log.error("Failed to remove cache: {}", file);
             }
         }
 
-        pkg.setCacheFile(null);
+        File manifestFile = getManifestFile(bundle, pkg);
+        if (manifestFile.exists() && !manifestFile.delete()) {
+            log.error("Failed to remove cache manifest: {}", manifestFile);
+        }
+    }
+
+    /**
+     * Record that the given package was installed, or found installed, on a node.
+     */
+    public void packageInstalled(final Bundle bundle, final Package pkg) {
+        assert bundle != null;
+        assert pkg != null;
+
+        long now = System.currentTimeMillis();
+        if (now - pkg.getLastInstalled() < INSTALLED_RESOLUTION) {
+            return;
+        }
+
+        pkg.setLastInstalled(now);
+        try {
+            save(bundle);
+        }
+        catch (IOException e) {
+            log.warn("Failed to save bundle: " + bundle.getName(), e);
+        }
+    }
+
+    /**
+     * Remove the caches of the least recently installed packages until the cache directory is within its
+     * {@link #getCacheQuota quota}.  Evicted packages are rebuilt when next selected.
+     */
+    public void evictPackageCaches() {
+        long quota = getCacheQuota() * 1024L * 1024L;
+        if (quota <= 0) {
+            return;
+        }
+
+        synchronized (evictLock) {
+            try {
+                long size = getChunkStore().getSize();
+                if (size <= quota) {
+                    return;
+                }
+
+                // Least recently used first; a cache which was never installed counts as used when built
+                final Map<Package,Long> used = new HashMap<Package,Long>();
+                final Map<Package,Bundle> owners = new HashMap<Package,Bundle>();
+                for (Bundle bundle : getBundles()) {
+                    for (Package pkg : bundle.getPackages()) {
+                        File file = pkg.getCacheFile();
+                        if (file != null && pkg.isCached() && !isBuilding(bundle, pkg)) {
+                            used.put(pkg, Math.max(pkg.getLastInstalled(), file.lastModified()));
+                            owners.put(pkg, bundle);
+                        }
+                    }
+                }
+                List<Package> packages = new ArrayList<Package>(used.keySet());
+                Collections.sort(packages, new Comparator<Package>()
+                {
+                    public int compare(final Package a, final Package b) {
+                        return used.get(a).compareTo(used.get(b));
+                    }
+                });
+
+                // Always keep the most recently used, else a quota smaller than one package would evict every build
+                for (int i = 0; i < packages.size() - 1 && size > quota; i++) {
+                    Package pkg = packages.get(i);
+                    log.info("Evicting package cache: {}; cache size {} exceeds quota {}",
+                        new Object[] { pkg.getId(), size, quota });
+                    deletePackageCache(owners.get(pkg), pkg);
+                    size = getChunkStore().getSize();
+                }
+
+                if (size > quota) {
+                    log.warn("Package caches exceed quota; size {}, quota {}", size, quota);
+                }
+            }
+            catch (IOException e) {
+                log.error("Failed to evict package caches", e);
+            }
+        }
+    }
+
+    private boolean isBuilding(final Bundle bundle, final Package pkg) {
+        return builds.containsKey(getCacheFile(bundle, pkg).getAbsolutePath())
+            || getBuildQueue().getActive(pkg) != null;
+    }
+
+    /**
+     * Remove files of the cache directory which no package refers to, such as those of renamed or removed bundles
+     * which could not be deleted at the time, and chunks which no package cache uses; then evict caches over quota.
+     *
+     * Skipped if package caches are being built or removed.
+     */
+    public void sweepPackageCaches() {
+        if (!cacheLock.writeLock().tryLock()) {
+            log.debug("Package caches are changing; skipping sweep");
+            return;
+        }
+        try {
+            sweepPackageCacheFiles();
+        }
+        catch (IOException e) {
+            log.error("Failed to sweep package caches", e);
+        }
+        finally {
+            cacheLock.writeLock().unlock();
+        }
+
+        evictPackageCaches();
+    }
+
+    private void sweepPackageCacheFiles() throws IOException {
+        File[] files = getCacheDir().listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Set<File> live = new HashSet<File>();
+        for (Bundle bundle : getBundles()) {
+            for (Package pkg : bundle.getPackages()) {
+                live.add(getCacheFile(bundle, pkg));
+                live.add(getManifestFile(bundle, pkg));
+            }
+        }
+
+        BundleStore store = getBundleStore();
+        List<ChunkStore.Recipe> recipes = new ArrayList<ChunkStore.Recipe>();
+        int removed = 0;
+        for (File file : files) {
+            if (file.isDirectory()) {
+                continue;
+            }
+
+            // Bundles which failed to load keep their caches, and the chunks they use, for when they load again
+            String name = file.getName();
+            int sep = name.lastIndexOf(',');
+            boolean unloadable = sep > 0 && store.isUnloadable(name.substring(0, sep));
+
+            if (!live.contains(file) && !unloadable) {
+                log.info("Removing orphaned cache file: {}", file);
+                if (file.delete()) {
+                    removed++;
+                }
+                else {
+                    log.error("Failed to remove cache file: {}", file);
+                }
+            }
+            else if (file.getName().endsWith(RECIPE_SUFFIX)) {
+                recipes.add(ChunkStore.Recipe.load(file));
+            }
+        }
+
+        // Recount chunk references from the recipes which remain; chunks of removed recipes go with them
+        getChunkStore().sweep(recipes);
+
+        log.debug("Swept package caches; {} kept, {} removed", recipes.size(), removed);
+    }
+
+    /**
+     * Open a stream to the cached archive of the given package.
+     */
+    public InputStream openPackageCache(final Package pkg) throws IOException {
+        assert pkg != null;
+
+        return openPackageCache(getPackageRecipe(pkg));
+    }
+
+    /**
+     * Open a stream to the cached archive described by the given recipe, as returned by {@link #getPackageRecipe}.
+     */
+    public InputStream openPackageCache(final ChunkStore.Recipe recipe) throws IOException {
+        assert recipe != null;
+
+        return getChunkStore().open(recipe);
+    }
+
+    /**
+     * Keep the chunks of the given recipe until unpinned, for nodes which read them from a shared mount.
+     */
+    public void pinPackageCache(final ChunkStore.Recipe recipe) throws IOException {
+        assert recipe != null;
+
+        getChunkStore().pin(recipe);
+    }
+
+    public void unpinPackageCache(final ChunkStore.Recipe recipe) {
+        assert recipe != null;
+
+        getChunkStore().unpin(recipe);
+    }
+
+    /**
+     * Returns the chunks which make up the cached archive of the given package.
+     */
+    public ChunkStore.Recipe getPackageRecipe(final Package pkg) throws IOException {
+        assert pkg != null;
+
+        File file = pkg.getCacheFile();
+        if (file == null || !pkg.isCached()) {
+            throw new FileNotFoundException("Package is not cached: " + pkg.getId());
+        }
+
+        try {
+            return ChunkStore.Recipe.load(file);
+        }
+        catch (FileNotFoundException e) {
+            // Removed behind our back; rebuilt when next selected
+            synchronized (pkg) {
+                if (file == pkg.getCacheFile()) {
+                    pkg.setCached(false);
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Load the manifest of the cached archive of the given package.
+     *
+     * @return  The manifest, or null if the package is not cached or its cache predates manifests.
+     */
+    public ArchiveManifest getPackageManifest(final Bundle bundle, final Package pkg) throws IOException {
+        assert bundle != null;
+        assert pkg != null;
+
+        File file = getManifestFile(bundle, pkg);
+        if (pkg.getCacheFile() == null || !file.exists()) {
+            return null;
+        }
+
+        return ArchiveManifest.load(file);
+    }
+
+    /**
+     * Write an archive holding only the named files of the cached archive of the given package.
+     *
+     * @param manifest  The manifest of the package cache, as returned by {@link #getPackageManifest}.
+     */
+    public void extractPackageCache(final Package pkg, final ArchiveManifest manifest, final Set<String> names,
+                                    final OutputStream output)
+        throws IOException
+    {
+        assert manifest != null;
+
+        InputStream input = openPackageCache(pkg);
+        try {
+            getArchiver().extract(manifest, input, names, output);
+        }
+        finally {
+            input.close();
+        }
     }
 }
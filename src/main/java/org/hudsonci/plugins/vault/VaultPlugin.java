@@ -63,7 +63,7 @@ public class VaultPlugin
 {
     private static final Logger log = LoggerFactory.getLogger(Vault.class);
 
-    private static final XStream XSTREAM = new XStream2();
+    static final XStream XSTREAM = new XStream2();
 
     static {
         XSTREAM.alias("bundle", Bundle.class);
@@ -96,16 +96,24 @@ public class VaultPlugin
     public void postInitialize() throws Exception {
         load();
 
-        // FIXME: Externalize vault data from basic configuration, like how surrogates catalog works
-        
         // Force the vault to load
         Vault vault = getVault();
         File dir = vault.getStoreDir();
         log.info("Storage directory: {}", dir);
 
+        // Bundles are kept in their own files, load them now rather than on first use
+        log.info("Loaded {} bundles", vault.getBundles().size());
+
         // FIXME: Need to make directory structure needed, so links work as expected
     }
 
+    @Override
+    public void stop() throws Exception {
+        if (vault != null) {
+            vault.close();
+        }
+    }
+
     @Override
     protected XmlFile getConfigXml() {
         return new XmlFile(XSTREAM, new File(Hudson.getInstance().getRootDir(), getShortName() + ".xml"));
@@ -120,8 +128,20 @@ public class VaultPlugin
 
         String dir = formData.getString("storeDir");
         File file = new File(dir);
+        boolean moved = !file.equals(vault.getStoreDir());
         vault.setStoreDir(file);
-        
-        save();
+
+        vault.setArchiveThreads(formData.optInt("archiveThreads", 0));
+        vault.setPushConcurrency(formData.optInt("pushConcurrency", 0));
+        vault.setBuildConcurrency(formData.optInt("buildConcurrency", 0));
+        vault.setCacheQuota(formData.optInt("cacheQuota", 0));
+
+        if (moved) {
+            // Bundles live in the storage directory; write them all to the new one
+            vault.save();
+        }
+        else {
+            save();
+        }
     }
 }
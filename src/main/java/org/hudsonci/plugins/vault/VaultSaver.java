@@ -0,0 +1,258 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2026 agent
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.hudsonci.plugins.vault;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces changes to the vault, writing them together shortly after the first change.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class VaultSaver
+{
+    private static final Logger log = LoggerFactory.getLogger(VaultSaver.class);
+
+    /** Milliseconds to wait after the first change for more before writing. */
+    private static final long DELAY = 2000;
+
+    /** Most milliseconds to wait before writing again after failures; the wait doubles with each one. */
+    private static final long MAX_RETRY_DELAY = 5 * 60 * 1000;
+
+    private final Vault vault;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+    {
+        public Thread newThread(final Runnable task) {
+            Thread thread = new Thread(task, "vault-saver");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /** Serializes writes; taken before the state lock, never while holding it. */
+    private final Object writeLock = new Object();
+
+    private boolean settings;
+
+    private boolean index;
+
+    private final Map<String,Bundle> bundles = new LinkedHashMap<String,Bundle>();
+
+    private final Set<String> removed = new HashSet<String>();
+
+    /** Names of the bundles the index is to list; those added and not removed since the saver was created. */
+    private final Set<String> names = new TreeSet<String>();
+
+    private boolean scheduled;
+
+    private long retryDelay = DELAY;
+
+    VaultSaver(final Vault vault) {
+        assert vault != null;
+        this.vault = vault;
+
+        for (Bundle bundle : vault.getBundles()) {
+            names.add(bundle.getName());
+        }
+    }
+
+    public synchronized void settingsChanged() {
+        settings = true;
+        schedule();
+    }
+
+    public synchronized void bundleChanged(final Bundle bundle) {
+        assert bundle != null;
+        bundles.put(bundle.getName(), bundle);
+        removed.remove(bundle.getName());
+        schedule();
+    }
+
+    public synchronized void bundleAdded(final Bundle bundle) {
+        index = true;
+        names.add(bundle.getName());
+        bundleChanged(bundle);
+    }
+
+    public synchronized void bundleRemoved(final String name) {
+        assert name != null;
+        index = true;
+        names.remove(name);
+        bundles.remove(name);
+        removed.add(name);
+        schedule();
+    }
+
+    private void schedule() {
+        schedule(DELAY);
+    }
+
+    private void schedule(final long delay) {
+        if (!scheduled) {
+            scheduled = true;
+            executor.schedule(new Runnable()
+            {
+                public void run() {
+                    try {
+                        flush();
+                    }
+                    catch (Throwable e) {
+                        log.error("Failed to save vault", e);
+
+                        // Failures while writing are retried by flush; make sure nothing else leaves changes unsaved
+                        synchronized (VaultSaver.this) {
+                            if (isPending()) {
+                                retry();
+                            }
+                        }
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private boolean isPending() {
+        return settings || index || !bundles.isEmpty() || !removed.isEmpty();
+    }
+
+    /**
+     * Schedule writing again after a failure, waiting longer after each.
+     */
+    private void retry() {
+        schedule(retryDelay);
+        retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+    }
+
+    /**
+     * Write all pending changes now.  Changes which fail to be written remain pending.
+     */
+    public void flush() throws IOException {
+        synchronized (writeLock) {
+            boolean settings, index;
+            Map<String,Bundle> bundles;
+            Set<String> removed;
+            List<String> names;
+
+            synchronized (this) {
+                scheduled = false;
+                settings = this.settings;
+                index = this.index;
+                bundles = new LinkedHashMap<String,Bundle>(this.bundles);
+                removed = new HashSet<String>(this.removed);
+                names = index ? new ArrayList<String>(this.names) : null;
+                this.settings = false;
+                this.index = false;
+                this.bundles.clear();
+                this.removed.clear();
+            }
+
+            if (!settings && !index && bundles.isEmpty() && removed.isEmpty()) {
+                return;
+            }
+
+            boolean written = false;
+            try {
+                write(settings, names, bundles, removed);
+                written = true;
+
+                synchronized (this) {
+                    retryDelay = DELAY;
+                }
+            }
+            finally {
+                if (!written) {
+                    // Keep what was not written, unless it has changed again since
+                    synchronized (this) {
+                        this.settings |= settings;
+                        this.index |= index;
+                        for (Map.Entry<String,Bundle> entry : bundles.entrySet()) {
+                            if (!this.bundles.containsKey(entry.getKey()) && !this.removed.contains(entry.getKey())) {
+                                this.bundles.put(entry.getKey(), entry.getValue());
+                            }
+                        }
+                        for (String name : removed) {
+                            if (!this.bundles.containsKey(name)) {
+                                this.removed.add(name);
+                            }
+                        }
+                        retry();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param names     The bundles the index is to list, as of when the bundles to write were taken; or null if the
+     *                  index is not to be written.
+     */
+    private void write(final boolean settings, final List<String> names, final Map<String,Bundle> bundles,
+                       final Set<String> removed)
+        throws IOException
+    {
+        log.debug("Saving vault; settings: {}, index: {}, bundles: {}, removed: {}",
+            new Object[] { settings, names != null, bundles.keySet(), removed });
+
+        if (settings) {
+            vault.getPlugin().save();
+        }
+
+        BundleStore store = vault.getBundleStore();
+        for (Bundle bundle : bundles.values()) {
+            // Not while it is being changed
+            synchronized (bundle) {
+                store.save(bundle);
+            }
+        }
+
+        // Bundles are in the index only once written, and out of it before they are removed
+        if (names != null) {
+            store.saveIndex(names);
+        }
+        for (String name : removed) {
+            store.remove(name);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
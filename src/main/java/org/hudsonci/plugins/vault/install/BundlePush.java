@@ -0,0 +1,380 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2026 agent
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.hudsonci.plugins.vault.install;
+
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.StreamTaskListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hudsonci.plugins.vault.Bundle;
+import org.hudsonci.plugins.vault.Package;
+import org.hudsonci.plugins.vault.Vault;
+import org.hudsonci.plugins.vault.slave.NodeOnlineInstaller;
+import org.hudsonci.plugins.vault.tool.ToolInstallerSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonatype.gossip.support.DC;
+
+/**
+ * Installs a bundle on every online node which has a matching package; where the node's online installer entry for the
+ * bundle, and the tools which are installed from it, install it.  Nodes with neither are skipped.
+ *
+ * Each node is installed by its own task, on a pool shared by all pushes and limited by
+ * {@link Vault#getPushConcurrency}.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class BundlePush
+{
+    private static final Logger log = LoggerFactory.getLogger(BundlePush.class);
+
+    /** The most recent push of each bundle. */
+    private static final Map<String,BundlePush> pushes = new ConcurrentHashMap<String,BundlePush>();
+
+    private static ThreadPoolExecutor executor;
+
+    private final String bundleName;
+
+    private final long started = System.currentTimeMillis();
+
+    private final List<NodeState> nodes = new ArrayList<NodeState>();
+
+    private BundlePush(final String bundleName) {
+        this.bundleName = bundleName;
+    }
+
+    /**
+     * Returns the most recent push of the given bundle, or null if it has not been pushed.
+     */
+    public static BundlePush get(final String bundleName) {
+        return pushes.get(bundleName);
+    }
+
+    /**
+     * Start pushing the given bundle to all online nodes; if a push of the bundle is running it is returned instead.
+     */
+    public static synchronized BundlePush start(final Bundle bundle) {
+        assert bundle != null;
+
+        BundlePush push = pushes.get(bundle.getName());
+        if (push != null && push.isRunning()) {
+            return push;
+        }
+
+        push = new BundlePush(bundle.getName());
+        for (Node node : Hudson.getInstance().getNodes()) {
+            Computer c = node.toComputer();
+            if (c != null && c.isOnline() && c.getChannel() != null) {
+                push.nodes.add(new NodeState(node));
+            }
+        }
+        pushes.put(bundle.getName(), push);
+
+        log.info("Pushing bundle: {} to {} nodes", bundle.getName(), push.nodes.size());
+
+        ThreadPoolExecutor executor = getExecutor();
+        for (final NodeState state : push.nodes) {
+            final BundlePush target = push;
+            executor.execute(new Runnable()
+            {
+                public void run() {
+                    target.install(state);
+                }
+            });
+        }
+
+        return push;
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        int threads = Vault.get().getPushConcurrency();
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory()
+                {
+                    private final AtomicInteger counter = new AtomicInteger();
+
+                    public Thread newThread(final Runnable task) {
+                        Thread thread = new Thread(task, "vault-push-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        else if (executor.getMaximumPoolSize() != threads) {
+            // Order matters so that core never exceeds maximum
+            if (threads > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(threads);
+                executor.setCorePoolSize(threads);
+            }
+            else {
+                executor.setCorePoolSize(threads);
+                executor.setMaximumPoolSize(threads);
+            }
+        }
+        return executor;
+    }
+
+    public String getBundleName() {
+        return bundleName;
+    }
+
+    public long getStarted() {
+        return started;
+    }
+
+    public List<NodeState> getNodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    public boolean isRunning() {
+        for (NodeState node : nodes) {
+            if (!node.isFinished()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of nodes in the given state.
+     */
+    public int getCount(final State state) {
+        int count = 0;
+        for (NodeState node : nodes) {
+            if (node.state == state) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void install(final NodeState state) {
+        state.started = System.currentTimeMillis();
+
+        DC.push(state.nodeName);
+        try {
+            Node node = Hudson.getInstance().getNode(state.nodeName);
+            Computer c = node != null ? node.toComputer() : null;
+            VirtualChannel channel = c != null ? c.getChannel() : null;
+            FilePath root = node != null ? node.getRootPath() : null;
+            if (channel == null || root == null) {
+                state.finish(State.SKIPPED, "Node is offline");
+                return;
+            }
+
+            NodeContext context = NodeContext.get(node, channel);
+            if (!hasMatchingPackage(context)) {
+                state.finish(State.SKIPPED, "No matching package");
+                return;
+            }
+
+            // Where the tools using the bundle, and the node's entry for it, install it; a tool's installer also
+            // completes the install as the tool expects
+            Map<FilePath,ToolInstallerSupport> tools = ToolInstallerSupport.getInstallers(node, bundleName);
+            Set<FilePath> locations = new LinkedHashSet<FilePath>(tools.keySet());
+            FilePath entry = NodeOnlineInstaller.getInstallLocation(node, context, root, bundleName);
+            if (entry != null) {
+                locations.add(entry);
+            }
+            if (locations.isEmpty()) {
+                state.finish(State.SKIPPED, "No installer for bundle");
+                return;
+            }
+
+            TaskListener listener = new StreamTaskListener(state.output);
+            state.state = State.INSTALLING;
+            for (FilePath location : locations) {
+                PackageInstaller installer = new PackageInstaller();
+                ToolInstallerSupport tool = tools.get(location);
+                if (tool != null) {
+                    tool.configure(installer);
+                }
+                else {
+                    installer.setBundleName(bundleName);
+                }
+                installer.setNode(node);
+                installer.setChannel(channel);
+                installer.setLocation(location);
+                installer.setListener(listener);
+
+                state.setInstaller(installer);
+                installer.install();
+            }
+
+            state.finish(State.INSTALLED, null);
+        }
+        catch (Exception e) {
+            log.warn("Failed to push bundle: " + bundleName + " to node: " + state.nodeName, e);
+            e.printStackTrace(new PrintStream(state.output, true));
+            state.finish(State.FAILED, e.toString());
+        }
+        finally {
+            DC.pop();
+        }
+    }
+
+    private boolean hasMatchingPackage(final NodeContext context) {
+        Bundle bundle = Vault.get().getBundle(bundleName);
+        if (bundle == null) {
+            return false;
+        }
+
+        PackageSelector selector = new PackageSelector();
+        for (Package pkg : bundle.getPackages()) {
+            if (selector.matches(pkg, context)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "BundlePush{" +
+            "bundleName='" + bundleName + '\'' +
+            ", nodes=" + nodes.size() +
+            '}';
+    }
+
+    public static enum State
+    {
+        PENDING,
+        INSTALLING,
+        INSTALLED,
+        SKIPPED,
+        FAILED
+    }
+
+    /**
+     * The progress of the push to a single node.
+     */
+    public static class NodeState
+    {
+        private final String nodeName;
+
+        private volatile State state = State.PENDING;
+
+        private volatile PackageInstaller installer;
+
+        private volatile long started;
+
+        private volatile long finished;
+
+        private volatile long bytes;
+
+        private volatile String message;
+
+        /** Output of the installs on the node. */
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        private NodeState(final Node node) {
+            this.nodeName = node.getNodeName();
+        }
+
+        /**
+         * Make the given installer the current one, adding what the previous one transferred.
+         */
+        private void setInstaller(final PackageInstaller installer) {
+            if (this.installer != null) {
+                bytes += this.installer.getTransferred();
+            }
+            this.installer = installer;
+        }
+
+        private void finish(final State state, final String message) {
+            setInstaller(null);
+            this.message = message;
+            this.finished = System.currentTimeMillis();
+            this.state = state;
+        }
+
+        public String getNodeName() {
+            return nodeName;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public boolean isFinished() {
+            return state != State.PENDING && state != State.INSTALLING;
+        }
+
+        public boolean isFailed() {
+            return state == State.FAILED;
+        }
+
+        /**
+         * Returns the number of bytes sent to the node so far.
+         */
+        public long getBytes() {
+            PackageInstaller current = installer;
+            return bytes + (current != null ? current.getTransferred() : 0);
+        }
+
+        /**
+         * Returns the time spent on the node so far, in milliseconds.
+         */
+        public long getDuration() {
+            if (started == 0) {
+                return 0;
+            }
+            return (finished != 0 ? finished : System.currentTimeMillis()) - started;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * Returns the output of the installs on the node so far.
+         */
+        public String getOutput() {
+            return output.toString();
+        }
+    }
+}
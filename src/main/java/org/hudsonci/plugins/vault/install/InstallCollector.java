@@ -0,0 +1,312 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2026 agent
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.hudsonci.plugins.vault.install;
+
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.hudsonci.plugins.vault.slave.NodeOnlineInstaller;
+import org.hudsonci.plugins.vault.tool.ToolInstallerSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Removes package installations from a node which are no longer referenced by its install entries or tools.
+ *
+ * Installations are found under <tt>vault/install</tt>, and under <tt>tools</tt> when installed by the Vault, by
+ * their marker files.  They are removed least recently used first.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class InstallCollector
+{
+    private static final Logger log = LoggerFactory.getLogger(InstallCollector.class);
+
+    /**
+     * Unreferenced installations used within this long are kept by {@link #collect}, in case they are wanted again.
+     */
+    private static final long RETENTION = 7L * 24 * 60 * 60 * 1000;
+
+    private final Node node;
+
+    private final VirtualChannel channel;
+
+    private final FilePath root;
+
+    public InstallCollector(final Node node, final VirtualChannel channel) {
+        assert node != null;
+        assert channel != null;
+        this.node = node;
+        this.channel = channel;
+        this.root = node.getRootPath();
+        if (root == null) {
+            throw new IllegalStateException("Node is offline: " + node.getDisplayName());
+        }
+    }
+
+    /**
+     * Remove the unreferenced installations which have not been used within the retention period.
+     *
+     * @return  The number of installations removed.
+     */
+    public int collect() throws Exception {
+        long expired = System.currentTimeMillis() - RETENTION;
+        int removed = 0;
+        for (Install install : findUnreferenced(null)) {
+            if (install.lastUsed >= expired) {
+                break;
+            }
+            remove(install);
+            removed++;
+        }
+        log.debug("Removed {} unused installations from: {}", removed, node.getDisplayName());
+        return removed;
+    }
+
+    /**
+     * Remove unreferenced installations, least recently used first, until there is the given space free at the
+     * location.  The location itself is kept.
+     *
+     * @return  The space free at the location afterwards.
+     */
+    public long makeSpace(final FilePath location, final long needed) throws Exception {
+        assert location != null;
+
+        long free = location.act(new Space(0))[0];
+        for (Install install : findUnreferenced(location)) {
+            if (free >= needed) {
+                break;
+            }
+            remove(install);
+            free = location.act(new Space(0))[0];
+        }
+        return free;
+    }
+
+    private void remove(final Install install) throws Exception {
+        log.info("Removing unused installation: {} ({} bytes) from: {}",
+            new Object[] { install.path, install.size, node.getDisplayName() });
+        FilePath path = new FilePath(channel, install.path);
+        try {
+            path.deleteRecursive();
+        }
+        finally {
+            NodeContext.installChanged(node, path);
+        }
+    }
+
+    /**
+     * Find the installations nothing refers to, least recently used first.
+     */
+    private List<Install> findUnreferenced(final FilePath keep) throws Exception {
+        Set<String> referenced = new HashSet<String>();
+        NodeContext context = NodeContext.get(node, channel);
+        for (FilePath location : NodeOnlineInstaller.getInstallLocations(node, context, root)) {
+            referenced.add(location.getRemote());
+        }
+        for (FilePath location : ToolInstallerSupport.getInstallLocations(node)) {
+            referenced.add(location.getRemote());
+        }
+        referenced.addAll(PackageInstaller.getInstalling(node));
+        if (keep != null) {
+            referenced.add(keep.getRemote());
+        }
+
+        List<Install> installs = new ArrayList<Install>();
+        installs.addAll(root.child("vault").child("install").act(
+            new Scan(PackageInstaller.MARKER_FILES, referenced)));
+        // Other installers use the same timestamp marker as ours did before we had our own; leave those
+        installs.addAll(root.child("tools").act(
+            new Scan(Collections.singleton(PackageInstaller.IDENTITY_FILE), referenced)));
+
+        List<Install> unreferenced = new ArrayList<Install>();
+        for (Install install : installs) {
+            if (!install.referenced) {
+                unreferenced.add(install);
+            }
+        }
+        Collections.sort(unreferenced, new Comparator<Install>()
+        {
+            public int compare(final Install a, final Install b) {
+                return a.lastUsed < b.lastUsed ? -1 : (a.lastUsed == b.lastUsed ? 0 : 1);
+            }
+        });
+        return unreferenced;
+    }
+
+    /**
+     * An installation found on a node.
+     */
+    private static class Install
+        implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String path;
+
+        private final long lastUsed;
+
+        private final long size;
+
+        private final boolean referenced;
+
+        private Install(final String path, final long lastUsed, final long size, final boolean referenced) {
+            this.path = path;
+            this.lastUsed = lastUsed;
+            this.size = size;
+            this.referenced = referenced;
+        }
+    }
+
+    /**
+     * Finds the installations within a directory; those with a marker file.
+     */
+    private static class Scan
+        implements FileCallable<List<Install>>
+    {
+        private static final long serialVersionUID = 1L;
+
+        /** Installations are not nested deeper than this; nor are they searched for. */
+        private static final int MAX_DEPTH = 4;
+
+        private final Set<String> markers;
+
+        private final Collection<String> referenced;
+
+        /**
+         * @param referenced    Paths of installations in use; compared with those found once made canonical.
+         */
+        private Scan(final Set<String> markers, final Collection<String> referenced) {
+            this.markers = new HashSet<String>(markers);
+            this.referenced = new ArrayList<String>(referenced);
+        }
+
+        public List<Install> invoke(final File dir, final VirtualChannel channel) throws IOException {
+            Set<File> canonical = new HashSet<File>();
+            for (String path : referenced) {
+                canonical.add(new File(path).getCanonicalFile());
+            }
+
+            List<Install> result = new ArrayList<Install>();
+            if (dir.isDirectory()) {
+                scan(dir, 0, canonical, result);
+            }
+            return result;
+        }
+
+        private void scan(final File dir, final int depth, final Set<File> referenced, final List<Install> result)
+            throws IOException
+        {
+            File[] children = dir.listFiles();
+            if (children == null) {
+                return;
+            }
+
+            long lastUsed = -1;
+            for (File child : children) {
+                if (markers.contains(child.getName())) {
+                    lastUsed = Math.max(lastUsed, child.lastModified());
+                }
+            }
+
+            if (lastUsed != -1) {
+                boolean used = referenced.contains(dir.getCanonicalFile());
+                result.add(new Install(dir.getAbsolutePath(), lastUsed, used ? 0 : Space.sizeOf(dir), used));
+                return;
+            }
+
+            if (depth < MAX_DEPTH) {
+                for (File child : children) {
+                    if (child.isDirectory() && !Util.isSymlink(child)) {
+                        scan(child, depth + 1, referenced, result);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the usable space for a location, and the size of what it already holds.
+     */
+    static class Space
+        implements FileCallable<long[]>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final long needed;
+
+        /**
+         * @param needed    The space needed; the location is only measured if less is usable, else its size is
+         *                  returned as zero.
+         */
+        Space(final long needed) {
+            this.needed = needed;
+        }
+
+        public long[] invoke(final File file, final VirtualChannel channel) throws IOException {
+            // The location may not exist yet; the space is that of where it will be
+            File dir = file;
+            while (dir != null && !dir.exists()) {
+                dir = dir.getParentFile();
+            }
+            long usable = dir != null ? dir.getUsableSpace() : 0;
+
+            long size = usable < needed && file.isDirectory() ? sizeOf(file) : 0;
+
+            return new long[] { usable, size };
+        }
+
+        private static long sizeOf(final File file) throws IOException {
+            // A link takes no space of its own worth counting, and what it points to is not part of the location
+            if (Util.isSymlink(file)) {
+                return 0;
+            }
+            File[] children = file.listFiles();
+            if (children == null) {
+                return file.length();
+            }
+            long size = 0;
+            for (File child : children) {
+                size += sizeOf(child);
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2026 agent
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.hudsonci.plugins.vault.install;
+
+import hudson.FilePath.FileCallable;
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The files of an installation on a node, as found by {@link Scan}.
+ *
+ * Files are identified by size and SHA-256, the same as their package archive entries.  Symbolic links are not
+ * followed, nor reported.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class InstalledFiles
+    implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Records the size, modification time and SHA-256 of each file when last scanned, so unchanged files need not be
+     * read.
+     */
+    public static final String INDEX_FILE = ".vault-index";
+
+    /** Length of a hex SHA-256. */
+    private static final int DIGEST_LENGTH = 64;
+
+    /** Names ending with <tt>/</tt> are directories; their size is zero and digest null. */
+    private final Map<String,Info> files = new HashMap<String,Info>();
+
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(files.keySet());
+    }
+
+    public boolean contains(final String name) {
+        return files.containsKey(name);
+    }
+
+    /**
+     * Check if the named file is installed with the given size and SHA-256 (hex); never if the digest is null.
+     */
+    public boolean matches(final String name, final long size, final String digest) {
+        Info info = files.get(name);
+        return info != null && digest != null && info.size == size && digest.equalsIgnoreCase(info.digest);
+    }
+
+    private static class Info
+        implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final long size;
+
+        private final String digest;
+
+        private Info(final long size, final String digest) {
+            this.size = size;
+            this.digest = digest;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "InstalledFiles{" +
+            "files=" + files.size() +
+            '}';
+    }
+
+    /**
+     * Scans an installation, using the index from the previous scan to avoid reading unchanged files.
+     */
+    public static class Scan
+        implements FileCallable<InstalledFiles>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Set<String> ignored;
+
+        /**
+         * @param ignored   Names of files in the root of the installation which are not part of it.
+         */
+        public Scan(final Set<String> ignored) {
+            assert ignored != null;
+            this.ignored = ignored;
+        }
+
+        public InstalledFiles invoke(final File root, final VirtualChannel channel) throws IOException {
+            Map<String,String[]> index = new HashMap<String,String[]>();
+            File indexFile = new File(root, INDEX_FILE);
+            if (indexFile.exists()) {
+                loadIndex(indexFile, index);
+            }
+
+            InstalledFiles result = new InstalledFiles();
+            List<String> lines = new ArrayList<String>();
+            scan(root, "", index, result, lines);
+
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(indexFile), "UTF-8"));
+            try {
+                for (String line : lines) {
+                    writer.append(line).append('\n');
+                }
+            }
+            finally {
+                writer.close();
+            }
+
+            return result;
+        }
+
+        private void scan(final File dir, final String prefix, final Map<String,String[]> index,
+                          final InstalledFiles result, final List<String> lines)
+            throws IOException
+        {
+            File[] children = dir.listFiles();
+            if (children == null) {
+                throw new IOException("Failed to list directory: " + dir);
+            }
+
+            for (File file : children) {
+                String name = prefix + file.getName();
+                if (prefix.length() == 0 && (ignored.contains(name) || INDEX_FILE.equals(name))) {
+                    continue;
+                }
+
+                if (Util.isSymlink(file)) {
+                    continue;
+                }
+
+                if (file.isDirectory()) {
+                    result.files.put(name + "/", new Info(0, null));
+                    scan(file, name + "/", index, result, lines);
+                    continue;
+                }
+
+                long size = file.length();
+                long time = file.lastModified();
+                String[] known = index.get(name);
+                String digest = known != null && known[0].equals(String.valueOf(size))
+                    && known[1].equals(String.valueOf(time)) ? known[2] : digest(file);
+
+                result.files.put(name, new Info(size, digest));
+                lines.add(size + "\t" + time + "\t" + digest + "\t" + name);
+            }
+        }
+
+        private static void loadIndex(final File file, final Map<String,String[]> index) throws IOException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] items = line.split("\t", 4);
+                    // Entries of older indexes hold a CRC instead; those files are read again
+                    if (items.length == 4 && items[2].length() == DIGEST_LENGTH) {
+                        index.put(items[3], items);
+                    }
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+
+        private static String digest(final File file) throws IOException {
+            MessageDigest sha = newDigest();
+            InputStream input = new FileInputStream(file);
+            try {
+                byte[] buff = new byte[64 * 1024];
+                int n;
+                while ((n = input.read(buff)) != -1) {
+                    sha.update(buff, 0, n);
+                }
+            }
+            finally {
+                input.close();
+            }
+            return toHex(sha.digest());
+        }
+
+        private static MessageDigest newDigest() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new Error(e);
+            }
+        }
+
+        private static String toHex(final byte[] bytes) {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : bytes) {
+                hex.append(String.format("%02x", b & 0xFF));
+            }
+            return hex.toString();
+        }
+    }
+
+    /**
+     * Removes files and directories from an installation.
+     */
+    public static class Delete
+        implements FileCallable<Void>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> names;
+
+        public Delete(final List<String> names) {
+            assert names != null;
+            this.names = names;
+        }
+
+        public Void invoke(final File root, final VirtualChannel channel) throws IOException {
+            for (String name : names) {
+                File file = new File(root, name);
+                if (Util.isSymlink(file)) {
+                    // Remove the link, never what it points to
+                    Util.deleteFile(file);
+                }
+                else if (file.isDirectory()) {
+                    Util.deleteRecursive(file);
+                }
+                else if (file.exists()) {
+                    Util.deleteFile(file);
+                }
+            }
+            return null;
+        }
+    }
+}
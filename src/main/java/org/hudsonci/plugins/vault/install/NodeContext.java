@@ -24,25 +24,45 @@
 
 package org.hudsonci.plugins.vault.install;
 
+import hudson.FilePath;
 import hudson.model.Computer;
 import hudson.model.Node;
+import hudson.model.TaskListener;
 import hudson.remoting.Callable;
+import hudson.remoting.Channel;
 import hudson.remoting.VirtualChannel;
 import hudson.slaves.ComputerListener;
 import hudson.slaves.NodeProperty;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.Collections;
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.WeakReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.codehaus.plexus.util.Os;
+import org.hudsonci.plugins.vault.Bundle;
+import org.hudsonci.plugins.vault.Vault;
 import org.hudsonci.plugins.vault.slave.CustomNodeContext;
+import org.hudsonci.plugins.vault.slave.NodeOnlineInstaller;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,10 +76,19 @@ public class NodeContext
 {
     private static final Logger log = LoggerFactory.getLogger(NodeContext.class);
 
+    /** Property references in install paths. */
+    private static final Pattern EXPRESSION = Pattern.compile("\\$\\{([^}]+)\\}");
+
+    /** Prefix of the attributes naming installations on the node; see {@link NodeContextProbe.InstalledProbe}. */
+    static final String INSTALLED_PREFIX = "vault.installed.";
+
     private final Map<String,String> attributes;
 
     private final Properties systemProperties;
 
+    /** Fingerprints by the attribute names they were computed from. */
+    private transient ConcurrentMap<Set<String>,String> fingerprints;
+
     private NodeContext(final Map<String, String> attributes, final Properties systemProperties) {
         assert attributes != null;
         this.attributes = attributes;
@@ -75,6 +104,61 @@ public class NodeContext
         return systemProperties;
     }
 
+    /**
+     * Returns a digest of the given attributes only; contexts which agree on them have the same fingerprint.
+     *
+     * Fingerprints are remembered by key set, which is expected not to change; see {@link Bundle#getMatcherKeys}.
+     */
+    public String getFingerprint(final Set<String> keys) {
+        assert keys != null;
+
+        ConcurrentMap<Set<String>,String> cached = fingerprints;
+        if (cached == null) {
+            cached = fingerprints = new ConcurrentHashMap<Set<String>,String>();
+        }
+
+        String fingerprint = cached.get(keys);
+        if (fingerprint == null) {
+            Map<String,String> selected = new TreeMap<String,String>();
+            for (String key : keys) {
+                selected.put(key, attributes.get(key));
+            }
+            fingerprint = digest(selected);
+            cached.put(keys, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    private static String digest(final Map<String,String> attrs) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new Error(e);
+        }
+
+        try {
+            for (Map.Entry<String,String> attr : attrs.entrySet()) {
+                md.update(attr.getKey().getBytes("UTF-8"));
+                md.update((byte) '=');
+                md.update(String.valueOf(attr.getValue()).getBytes("UTF-8"));
+                md.update((byte) '\n');
+            }
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new Error(e);
+        }
+
+        byte[] bytes = md.digest();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+            hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+        }
+        return new String(hex);
+    }
+
     @Override
     public String toString() {
         return "NodeContext{" +
@@ -85,6 +169,30 @@ public class NodeContext
     private static class FetchContext
         implements Callable<NodeContext,RuntimeException>
     {
+        private static final long serialVersionUID = 1L;
+
+        private final Set<String> keys;
+
+        private final Set<String> installs;
+
+        private final List<NodeContextProbe> probes;
+
+        private final String root;
+
+        /**
+         * @param keys      The system properties to include.
+         * @param installs  The installation attributes to include.
+         * @param root      The root directory of the node, or null if not known.
+         */
+        private FetchContext(final Set<String> keys, final Set<String> installs, final List<NodeContextProbe> probes,
+                             final String root)
+        {
+            this.keys = new HashSet<String>(keys);
+            this.installs = new HashSet<String>(installs);
+            this.probes = new ArrayList<NodeContextProbe>(probes);
+            this.root = root;
+        }
+
         public NodeContext call() {
             Map<String,String> attrs = new HashMap<String,String>();
 
@@ -93,17 +201,109 @@ public class NodeContext
             attrs.put("os.arch", Os.OS_ARCH);
             attrs.put("os.version", Os.OS_VERSION);
 
-            return new NodeContext(attrs, System.getProperties());
+            File dir = root != null ? new File(root) : null;
+            for (NodeContextProbe probe : probes) {
+                try {
+                    probe.probe(dir, attrs);
+                }
+                catch (Exception e) {
+                    // Leaves out only the attributes of the failed probe
+                    attrs.put("probe.failed." + probe.getClass().getSimpleName(), String.valueOf(e));
+                }
+            }
+
+            // Only the installations packages select on are sent back
+            for (Iterator<String> iter = attrs.keySet().iterator(); iter.hasNext();) {
+                String key = iter.next();
+                if (key.startsWith(INSTALLED_PREFIX) && !installs.contains(key)) {
+                    iter.remove();
+                }
+            }
+
+            Properties props = new Properties();
+            for (String key : keys) {
+                String value = System.getProperty(key);
+                if (value != null) {
+                    props.setProperty(key, value);
+                }
+            }
+
+            return new NodeContext(attrs, props);
         }
     }
 
+    /**
+     * Returns the names of the system properties the install paths configured for the node refer to.
+     */
+    private static Set<String> getReferencedKeys(final Node node) {
+        Set<String> keys = new HashSet<String>();
+        for (NodeProperty prop : node.getNodeProperties()) {
+            if (prop instanceof NodeOnlineInstaller && ((NodeOnlineInstaller)prop).getEntries() != null) {
+                for (NodeOnlineInstaller.Entry entry : ((NodeOnlineInstaller)prop).getEntries()) {
+                    if (entry.getPath() != null) {
+                        Matcher matcher = EXPRESSION.matcher(entry.getPath());
+                        while (matcher.find()) {
+                            keys.add(matcher.group(1));
+                        }
+                    }
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the installation attributes which packages select on.
+     */
+    private static Set<String> getReferencedInstalls() {
+        Set<String> keys = new HashSet<String>();
+        for (Bundle bundle : Vault.get().getBundles()) {
+            for (String key : bundle.getMatcherKeys()) {
+                if (key.startsWith(INSTALLED_PREFIX)) {
+                    keys.add(key);
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the attribute naming the installation at the given location, or null if it is not under the
+     * <tt>vault/install</tt> directory of the node.
+     */
+    private static String getInstalledKey(final Node node, final FilePath location) {
+        FilePath root = node.getRootPath();
+        if (root == null) {
+            return null;
+        }
+
+        String base = root.child("vault").child("install").getRemote();
+        String path = location.getRemote();
+        if (path.length() <= base.length() + 1 || !path.startsWith(base)) {
+            return null;
+        }
+        return INSTALLED_PREFIX + path.substring(base.length() + 1).replace('\\', '/');
+    }
+
+    /**
+     * Fetch the context of a node; its system properties are only those its install paths refer to, and its
+     * installations only those packages select on.
+     */
     public static NodeContext fetch(final Node node, final VirtualChannel channel) throws IOException, InterruptedException {
+        return fetch(node, channel, getReferencedInstalls());
+    }
+
+    private static NodeContext fetch(final Node node, final VirtualChannel channel, final Set<String> installs)
+        throws IOException, InterruptedException
+    {
         assert node != null;
         assert channel != null;
 
         log.debug("Fetching context for node: {} on channel: {}", node.getDisplayName(), channel);
 
-        NodeContext context = channel.call(new FetchContext());
+        FilePath root = node.getRootPath();
+        NodeContext context = channel.call(new FetchContext(getReferencedKeys(node), installs, NodeContextProbe.all(),
+            root != null ? root.getRemote() : null));
         assert context != null;
 
         // Apply any custom context properties configured for the node
@@ -116,37 +316,119 @@ public class NodeContext
         return context;
     }
 
-    private static Map<Node,NodeContext> cache = Collections.synchronizedMap(new HashMap<Node,NodeContext>());
+    /**
+     * Contexts by node name.
+     */
+    private static final ConcurrentMap<String,Cached> cache = new ConcurrentHashMap<String,Cached>();
 
+    /**
+     * Returns the context of the given node, fetching it if not cached.
+     *
+     * Hudson replaces the node when its configuration is saved, so a context is only used for the node it was fetched
+     * for; reconfigured nodes get theirs fetched again, as do nodes when packages select on other installations.
+     */
     public static NodeContext get(final Node node, final VirtualChannel channel) throws IOException, InterruptedException {
-        NodeContext context = cache.get(node);
-        if (context == null) {
-            context = fetch(node, channel);
-            cache.put(node, context);
+        assert node != null;
+
+        Set<String> installs = getReferencedInstalls();
+        Cached cached = cache.get(node.getNodeName());
+        if (cached != null && cached.node.get() == node && cached.installs.equals(installs)) {
+            return cached.context;
         }
+
+        NodeContext context = fetch(node, channel, installs);
+        cache.put(node.getNodeName(), new Cached(node, installs, context));
         return context;
     }
 
-    public static Map<Node,NodeContext> getCache() {
-        return cache;
+    /**
+     * Note that the installation at the given location on the node was changed or removed; the cached context of the
+     * node is discarded if packages select on that installation.
+     */
+    public static void installChanged(final Node node, final FilePath location) {
+        assert node != null;
+        assert location != null;
+
+        Cached cached = cache.get(node.getNodeName());
+        if (cached != null && cached.installs.contains(getInstalledKey(node, location))) {
+            invalidate(node.getNodeName());
+        }
+    }
+
+    /**
+     * Discard the cached context of the named node.
+     */
+    public static void invalidate(final String nodeName) {
+        assert nodeName != null;
+
+        if (cache.remove(nodeName) != null) {
+            log.trace("Removed cached context for: {}", nodeName);
+        }
+    }
+
+    /**
+     * A context and the node it was fetched for.
+     */
+    private static class Cached
+    {
+        /** Weak, so the node replaced by a configuration change is not kept. */
+        private final WeakReference<Node> node;
+
+        /** The installation attributes the context was fetched with. */
+        private final Set<String> installs;
+
+        private final NodeContext context;
+
+        private Cached(final Node node, final Set<String> installs, final NodeContext context) {
+            this.node = new WeakReference<Node>(node);
+            this.installs = installs;
+            this.context = context;
+        }
     }
 
     /**
-     * Clear the cache when nodes go offline.
+     * Fetch contexts when nodes connect, so installs need not wait for them; clear the cache when nodes go offline.
      */
     @Named
     @Singleton
     public static class ComputerListenerImpl
         extends ComputerListener
     {
+        @Override
+        public void preOnline(final Computer c, final Channel channel, final FilePath root,
+                              final TaskListener listener)
+        {
+            // Before installs on the node are started
+            prefetch(c, channel);
+        }
+
+        @Override
+        public void onOnline(final Computer c, final TaskListener listener) {
+            // Nodes without preOnline; a no-op for those which had it
+            if (c.getChannel() != null) {
+                prefetch(c, c.getChannel());
+            }
+        }
+
+        private void prefetch(final Computer c, final VirtualChannel channel) {
+            Node node = c.getNode();
+            if (node == null) {
+                return;
+            }
+            try {
+                get(node, channel);
+            }
+            catch (Exception e) {
+                log.warn("Failed to fetch context of node: " + c.getDisplayName(), e);
+            }
+        }
+
         @Override
         public void onOffline(final Computer c) {
             log.trace("Clearing caches");
-            
-            NodeContext context = getCache().remove(c.getNode());
-            if (context != null) {
-                log.trace("Removed cached context for: {}", c.getDisplayName());
-            }
+
+            // The node is gone if it was removed; its name is not
+            invalidate(c.getName());
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,189 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2026 agent
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.hudsonci.plugins.vault.install;
+
+import hudson.ExtensionPoint;
+import hudson.model.Hudson;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Contributes attributes to the {@link NodeContext} of a node, which packages are selected by.
+ *
+ * Probes are sent to the node and run there, all in the same call, when it comes online.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public abstract class NodeContextProbe
+    implements ExtensionPoint, Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Add attributes describing the node; runs on the node.
+     *
+     * @param root  The root directory of the node, or null if not known.
+     */
+    public abstract void probe(File root, Map<String,String> attributes) throws Exception;
+
+    public static List<NodeContextProbe> all() {
+        return Hudson.getInstance().getExtensionList(NodeContextProbe.class);
+    }
+
+    /**
+     * Adds <tt>java.version</tt>, of the JVM running the node.
+     */
+    @Named
+    @Singleton
+    public static class JavaProbe
+        extends NodeContextProbe
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void probe(final File root, final Map<String,String> attributes) {
+            attributes.put("java.version", System.getProperty("java.version"));
+        }
+    }
+
+    /**
+     * Adds <tt>cpu.count</tt>, the number of processors.
+     */
+    @Named
+    @Singleton
+    public static class CpuProbe
+        extends NodeContextProbe
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void probe(final File root, final Map<String,String> attributes) {
+            attributes.put("cpu.count", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        }
+    }
+
+    /**
+     * Adds <tt>libc</tt> on Linux; <tt>musl</tt> if its dynamic loader is present, else <tt>glibc</tt>.
+     */
+    @Named
+    @Singleton
+    public static class LibcProbe
+        extends NodeContextProbe
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void probe(final File root, final Map<String,String> attributes) {
+            if (!"Linux".equals(System.getProperty("os.name"))) {
+                return;
+            }
+
+            String libc = "glibc";
+            for (String dir : new String[] { "/lib", "/lib64", "/usr/lib" }) {
+                String[] names = new File(dir).list();
+                if (names == null) {
+                    continue;
+                }
+                for (String name : names) {
+                    if (name.startsWith("ld-musl-")) {
+                        libc = "musl";
+                    }
+                }
+            }
+            attributes.put("libc", libc);
+        }
+    }
+
+    /**
+     * Adds <tt>vault.installed.<em>path</em></tt> for each package installation under <tt>vault/install</tt>, with
+     * the digest of its content.
+     *
+     * Only the installations packages select on are kept in the context, which is fetched again when one of them is
+     * installed or removed.
+     */
+    @Named
+    @Singleton
+    public static class InstalledProbe
+        extends NodeContextProbe
+    {
+        private static final long serialVersionUID = 1L;
+
+        private static final int MAX_DEPTH = 4;
+
+        @Override
+        public void probe(final File root, final Map<String,String> attributes) throws IOException {
+            if (root != null) {
+                scan(new File(new File(root, "vault"), "install"), "", 0, attributes);
+            }
+        }
+
+        private void scan(final File dir, final String path, final int depth, final Map<String,String> attributes)
+            throws IOException
+        {
+            File identity = new File(dir, PackageInstaller.IDENTITY_FILE);
+            if (identity.isFile()) {
+                attributes.put(NodeContext.INSTALLED_PREFIX + path, read(identity));
+                return;
+            }
+
+            File[] children = dir.listFiles();
+            if (children == null || depth >= MAX_DEPTH) {
+                return;
+            }
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    scan(child, path.length() == 0 ? child.getName() : path + "/" + child.getName(), depth + 1,
+                        attributes);
+                }
+            }
+        }
+
+        private String read(final File file) throws IOException {
+            InputStream input = new FileInputStream(file);
+            try {
+                StringBuilder buff = new StringBuilder();
+                byte[] bytes = new byte[256];
+                int n;
+                while ((n = input.read(bytes)) != -1) {
+                    buff.append(new String(bytes, 0, n, "UTF-8"));
+                }
+                return buff.toString().trim();
+            }
+            finally {
+                input.close();
+            }
+        }
+    }
+}
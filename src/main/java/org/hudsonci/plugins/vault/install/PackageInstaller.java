@@ -29,11 +29,31 @@ import hudson.model.TaskListener;
 import hudson.model.Node;
 import hudson.remoting.VirtualChannel;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hudsonci.plugins.vault.Bundle;
 import org.hudsonci.plugins.vault.Package;
+import org.hudsonci.plugins.vault.Vault;
+import org.hudsonci.plugins.vault.slave.SharedPackageCache;
+import org.hudsonci.plugins.vault.util.ArchiveManifest;
+import org.hudsonci.plugins.vault.util.ArchiveMismatchException;
+import org.hudsonci.plugins.vault.util.ChunkStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,6 +66,29 @@ public class PackageInstaller
 {
     private static final Logger log = LoggerFactory.getLogger(PackageInstaller.class);
 
+    /**
+     * Same marker as used by {@link FilePath#installIfNecessaryFrom}, so existing installations are recognized.
+     */
+    private static final String TIMESTAMP_FILE = ".timestamp";
+
+    /**
+     * Holds the digest of the installed package content.
+     */
+    static final String IDENTITY_FILE = ".vault-package";
+
+    static final Set<String> MARKER_FILES = Collections.unmodifiableSet(
+        new HashSet<String>(Arrays.asList(TIMESTAMP_FILE, IDENTITY_FILE)));
+
+    /**
+     * The identity file of an installation in use is touched when older than this; collection only needs days.
+     */
+    private static final long TOUCH_INTERVAL = 60 * 60 * 1000;
+
+    /**
+     * Installs in progress, by node name and location.
+     */
+    private static final ConcurrentMap<String,Flight> flights = new ConcurrentHashMap<String,Flight>();
+
     private String bundleName;
 
     private FilePath location;
@@ -56,6 +99,10 @@ public class PackageInstaller
 
     private TaskListener listener;
 
+    private boolean deltaEnabled = true;
+
+    private final AtomicLong transferred = new AtomicLong();
+
     private final List<PackageInstallListener> installListeners = new ArrayList<PackageInstallListener>();
 
     public PackageInstaller() {
@@ -120,6 +167,24 @@ public class PackageInstaller
         this.listener = listener;
     }
 
+    /**
+     * When enabled, an existing installation is updated by transferring only the files which differ.
+     */
+    public boolean isDeltaEnabled() {
+        return deltaEnabled;
+    }
+
+    public void setDeltaEnabled(final boolean deltaEnabled) {
+        this.deltaEnabled = deltaEnabled;
+    }
+
+    /**
+     * Returns the number of archive bytes sent to the node so far.
+     */
+    public long getTransferred() {
+        return transferred.get();
+    }
+
     public Collection<PackageInstallListener> getInstallListeners() {
         return installListeners;
     }
@@ -132,6 +197,22 @@ public class PackageInstaller
         installListeners.remove(listener);
     }
 
+    /**
+     * Returns the locations being installed to on the given node.
+     */
+    static Set<String> getInstalling(final Node node) {
+        assert node != null;
+
+        String prefix = node.getNodeName() + "|";
+        Set<String> locations = new HashSet<String>();
+        for (String key : flights.keySet()) {
+            if (key.startsWith(prefix)) {
+                locations.add(key.substring(prefix.length()));
+            }
+        }
+        return locations;
+    }
+
     private Package selectPackage() throws Exception {
         PackageSelector selector = new PackageSelector();
         selector.setBundleName(getBundleName());
@@ -145,16 +226,78 @@ public class PackageInstaller
     public FilePath install() throws Exception {
         log.debug("Installing package for bundle: {} on: {}", getBundleName(), getNode().getDisplayName());
 
-        Package pkg = selectPackage();
+        final Package pkg = selectPackage();
         log.debug("Selected package: {}", pkg);
 
-        FilePath location = getLocation();
+        final FilePath location = getLocation();
         log.debug("Install location: {}", location);
 
-        String msg = String.format("Installing package for bundle: %s (%s) to: %s",
-            getBundleName(), pkg.getId(), location);
+        // Only one install into a location at a time; callers wanting the same package share the result
+        String key = getNode().getNodeName() + "|" + location.getRemote();
+        while (true) {
+            Flight flight = new Flight(pkg.getId().toString(), new Callable<Void>()
+            {
+                public Void call() throws Exception {
+                    doInstall(pkg, location);
+                    return null;
+                }
+            });
+
+            Flight current = flights.putIfAbsent(key, flight);
+            if (current == null) {
+                try {
+                    flight.task.run();
+                }
+                finally {
+                    flights.remove(key, flight);
+                }
+                current = flight;
+            }
+            else {
+                String msg = String.format("Waiting for installation in progress to: %s", location);
+                log.debug(msg);
+                getListener().getLogger().println(msg);
+            }
+
+            try {
+                current.task.get();
+            }
+            catch (ExecutionException e) {
+                if (current != flight && !current.packageId.equals(flight.packageId)) {
+                    // Another package failed to install here; ours is still to be done
+                    continue;
+                }
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw (Error) cause;
+            }
+
+            if (current == flight || current.packageId.equals(flight.packageId)) {
+                return location;
+            }
+        }
+    }
+
+    private void doInstall(final Package pkg, final FilePath location) throws Exception {
+        if (!isInstalled(pkg, location)) {
+            String msg = String.format("Installing package for bundle: %s (%s) to: %s",
+                getBundleName(), pkg.getId(), location);
+            log.debug(msg);
+            getListener().getLogger().println(msg);
+
+            checkSpace(pkg, location);
+
+            try {
+                if (!isDeltaEnabled() || !update(pkg, location)) {
+                    unpack(pkg, location);
+                }
+            }
+            finally {
+                NodeContext.installChanged(getNode(), location);
+            }
 
-        if (location.installIfNecessaryFrom(pkg.getCacheFile().toURI().toURL(), getListener(), msg)) {
             for (PackageInstallListener listener : getInstallListeners()) {
                 try {
                     listener.installed(pkg, location, getListener());
@@ -170,9 +313,263 @@ public class PackageInstaller
         }
         else {
             log.debug("Package is already installed");
+
+            // Installations are collected least recently used first
+            if (pkg.getDigest() != null) {
+                FilePath identity = location.child(IDENTITY_FILE);
+                long now = System.currentTimeMillis();
+                if (identity.lastModified() < now - TOUCH_INTERVAL) {
+                    identity.touch(now);
+                }
+            }
         }
+        Bundle bundle = Vault.get().getBundle(getBundleName());
+        if (bundle != null) {
+            Vault.get().packageInstalled(bundle, pkg);
+        }
+    }
 
-        return location;
+    /**
+     * Make sure the node has room for the package before transferring it, removing unused installations if not.
+     *
+     * What the location already holds is counted as free, as it is replaced; it is only measured when the usable
+     * space alone is not enough.
+     */
+    private void checkSpace(final Package pkg, final FilePath location) throws Exception {
+        long needed = getInstalledSize(pkg);
+        long[] space = location.act(new InstallCollector.Space(needed));
+        long available = space[0] + space[1];
+        if (available >= needed) {
+            return;
+        }
+
+        String msg = String.format(
+            "Not enough space for package (%d bytes needed, %d available); removing unused installations",
+            needed, available);
+        log.info(msg);
+        getListener().getLogger().println(msg);
+
+        available = new InstallCollector(getNode(), getChannel()).makeSpace(location, needed - space[1]) + space[1];
+        if (available < needed) {
+            throw new PackageInstallException(String.format(
+                "Not enough space on %s for package: %d bytes needed, %d available",
+                getNode().getDisplayName(), needed, available));
+        }
+    }
+
+    /**
+     * Returns the size of the package once installed; the archive size if its cache has no manifest.
+     */
+    private long getInstalledSize(final Package pkg) throws Exception {
+        Bundle bundle = Vault.get().getBundle(getBundleName());
+        ArchiveManifest manifest = bundle != null ? Vault.get().getPackageManifest(bundle, pkg) : null;
+        if (manifest == null) {
+            return Vault.get().getPackageRecipe(pkg).getLength();
+        }
+
+        long size = 0;
+        for (ArchiveManifest.Entry entry : manifest.getEntries()) {
+            size += entry.getSize();
+        }
+        return size;
+    }
+
+    /**
+     * Check if the location holds the content of the package cache.
+     *
+     * Caches built before content digests were recorded fall back to comparing timestamps.
+     */
+    private boolean isInstalled(final Package pkg, final FilePath location) throws Exception {
+        if (pkg.getDigest() == null) {
+            FilePath timestamp = location.child(TIMESTAMP_FILE);
+            return timestamp.exists() && timestamp.lastModified() == pkg.getCacheFile().lastModified();
+        }
+
+        FilePath identity = location.child(IDENTITY_FILE);
+        return identity.exists() && pkg.getDigest().equals(identity.readToString().trim());
+    }
+
+    /**
+     * Record which package content is installed at the location.
+     */
+    private void markInstalled(final Package pkg, final FilePath location) throws Exception {
+        if (pkg.getDigest() != null) {
+            location.child(IDENTITY_FILE).write(pkg.getDigest(), "UTF-8");
+        }
+        else {
+            location.child(TIMESTAMP_FILE).touch(pkg.getCacheFile().lastModified());
+        }
+    }
+
+    /**
+     * Replace the contents of the location with the package archive.
+     */
+    private void unpack(final Package pkg, final FilePath location) throws Exception {
+        if (location.exists()) {
+            location.deleteContents();
+        }
+        else {
+            location.mkdirs();
+        }
+
+        if (!unpackShared(pkg, location)) {
+            // The digest from the recipe, so it is always that of the archive being read
+            ChunkStore.Recipe recipe = Vault.get().getPackageRecipe(pkg);
+            InputStream input = Vault.get().openPackageCache(recipe);
+            try {
+                RemoteUnzip unzip = new RemoteUnzip(location, transferred);
+                unzip.setDigest(recipe.getDigest());
+                unzip.copyFrom(input);
+            }
+            finally {
+                input.close();
+            }
+        }
+
+        markInstalled(pkg, location);
+    }
+
+    /**
+     * Have the node unpack the package directly from its mount of the package cache, if it has one.
+     *
+     * @return  False if the node has no usable mount; the location is left empty.
+     */
+    private boolean unpackShared(final Package pkg, final FilePath location) throws Exception {
+        SharedPackageCache mount = getNode().getNodeProperties().get(SharedPackageCache.class);
+        if (mount == null) {
+            return false;
+        }
+
+        String chunksPath = mount.mapPath(Vault.get().getChunksDir());
+        if (chunksPath == null) {
+            log.warn("Package cache is not within the shared directory of node: {}", getNode().getDisplayName());
+            return false;
+        }
+
+        ChunkStore.Recipe recipe = Vault.get().getPackageRecipe(pkg);
+        List<ChunkStore.Chunk> chunks = recipe.getChunks();
+        String[] ids = new String[chunks.size()];
+        long[] sizes = new long[chunks.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = chunks.get(i).getId();
+            sizes[i] = chunks.get(i).getSize();
+        }
+
+        try {
+            // Chunks released by a rebuild meanwhile must stay until the node has read them
+            Vault.get().pinPackageCache(recipe);
+            try {
+                if (location.act(new SharedCacheUnpack(chunksPath, ids, sizes))) {
+                    log.debug("Unpacked from shared cache: {}", chunksPath);
+                    return true;
+                }
+            }
+            finally {
+                Vault.get().unpinPackageCache(recipe);
+            }
+            log.warn("Package cache is not visible at: {} on node: {}", chunksPath, getNode().getDisplayName());
+        }
+        catch (IOException e) {
+            log.warn("Failed to unpack from shared cache; transferring instead", e);
+            location.deleteContents();
+        }
+
+        return false;
+    }
+
+    /**
+     * Bring an existing installation up to date by transferring only the files which differ from the package.
+     *
+     * @return  False if the location is not an existing installation, or the package cache has no manifest.
+     */
+    private boolean update(final Package pkg, final FilePath location) throws Exception {
+        if (!location.child(IDENTITY_FILE).exists() && !location.child(TIMESTAMP_FILE).exists()) {
+            return false;
+        }
+
+        Bundle bundle = Vault.get().getBundle(getBundleName());
+        ArchiveManifest manifest = bundle != null ? Vault.get().getPackageManifest(bundle, pkg) : null;
+        if (manifest == null) {
+            log.debug("Package cache has no manifest; unable to update installation");
+            return false;
+        }
+
+        InstalledFiles installed = location.act(new InstalledFiles.Scan(MARKER_FILES));
+        log.debug("Installed: {}", installed);
+
+        Set<String> changed = new HashSet<String>();
+        Map<String,String> digests = new HashMap<String,String>();
+        long changedBytes = 0, totalBytes = 0;
+        for (ArchiveManifest.Entry entry : manifest.getEntries()) {
+            totalBytes += entry.getCompressedSize();
+            if (!entry.isDirectory() && !installed.matches(entry.getName(), entry.getSize(), entry.getDigest())) {
+                changed.add(entry.getName());
+                changedBytes += entry.getCompressedSize();
+                if (entry.getDigest() != null) {
+                    digests.put(entry.getName(), entry.getDigest());
+                }
+            }
+        }
+
+        List<String> removed = new ArrayList<String>();
+        for (String name : installed.getNames()) {
+            if (manifest.getEntry(name) == null) {
+                removed.add(name);
+            }
+        }
+
+        String msg = String.format("Updating %d files (%d of %d bytes), removing %d",
+            changed.size(), changedBytes, totalBytes, removed.size());
+        log.debug(msg);
+        getListener().getLogger().println(msg);
+
+        // No longer the previous package; should the update be interrupted the next install unpacks fully
+        location.child(IDENTITY_FILE).delete();
+        location.child(TIMESTAMP_FILE).delete();
+
+        if (!removed.isEmpty()) {
+            location.act(new InstalledFiles.Delete(removed));
+        }
+
+        if (!changed.isEmpty()) {
+            RemoteUnzip unzip = new RemoteUnzip(location, transferred);
+            unzip.setEntryDigests(digests);
+            boolean finished = false;
+            try {
+                Vault.get().extractPackageCache(pkg, manifest, changed, unzip.start());
+                unzip.finish();
+                finished = true;
+            }
+            catch (ArchiveMismatchException e) {
+                // The cache was rebuilt after the manifest was read; unpack fully instead
+                log.debug("Package cache changed during update: {}", e.getMessage());
+                return false;
+            }
+            finally {
+                if (!finished) {
+                    unzip.abort();
+                }
+            }
+        }
+
+        markInstalled(pkg, location);
+
+        return true;
+    }
+
+    /**
+     * An install in progress to a location.
+     */
+    private static class Flight
+    {
+        private final String packageId;
+
+        private final FutureTask<Void> task;
+
+        private Flight(final String packageId, final Callable<Void> install) {
+            this.packageId = packageId;
+            this.task = new FutureTask<Void>(install);
+        }
     }
 
     @Override
@@ -183,6 +580,7 @@ public class PackageInstaller
             ", node=" + node +
             ", channel=" + channel +
             ", listener=" + listener +
+            ", deltaEnabled=" + deltaEnabled +
             ", installListeners=" + installListeners +
             '}';
     }
@@ -25,16 +25,16 @@
 package org.hudsonci.plugins.vault.install;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 
 import org.hudsonci.plugins.vault.Bundle;
 import org.hudsonci.plugins.vault.Package;
 import org.hudsonci.plugins.vault.Vault;
+import org.hudsonci.plugins.vault.util.ValueMatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.Multimap;
-
 /**
  * Selects a package for a given bundle name.
  *
@@ -81,11 +81,19 @@ public class PackageSelector
             return null;
         }
 
-        Package found = null;
-        for (Package pkg : bundle.getPackages()) {
-            if (matches(pkg, getContext())) {
-                found = pkg;
-                break;
+        // Nodes which agree on the attributes the packages refer to get the same package, until the bundle changes
+        String fingerprint = getContext().getFingerprint(bundle.getMatcherKeys());
+        Package found = bundle.getSelection(fingerprint);
+        if (found == null) {
+            long generation = bundle.getGeneration();
+            for (Package pkg : bundle.getPackages()) {
+                if (matches(pkg, getContext())) {
+                    found = pkg;
+                    break;
+                }
+            }
+            if (found != null) {
+                bundle.setSelection(fingerprint, found, generation);
             }
         }
 
@@ -114,22 +122,22 @@ public class PackageSelector
         assert pkg != null;
         assert context != null;
 
-        Multimap<String, String> props = pkg.getProperties();
+        Map<String,List<ValueMatcher>> matchers = pkg.getMatchers();
 
         // No properties, matches anything
-        if (props.isEmpty()) {
+        if (matchers.isEmpty()) {
             return true;
         }
 
         Map<String,String> attrs = context.getAttributes();
-        for (String key : props.keySet()) {
-            String found = attrs.get(key);
+        for (Map.Entry<String,List<ValueMatcher>> entry : matchers.entrySet()) {
+            String found = attrs.get(entry.getKey());
 
             boolean matched = false;
 
             // See if the found data, matches at least one of our properties keys
-            for (String expect : props.get(key)) {
-                if (expect.equalsIgnoreCase(found)) {
+            for (ValueMatcher matcher : entry.getValue()) {
+                if (matcher.matches(found)) {
                     matched = true;
                     break;
                 }
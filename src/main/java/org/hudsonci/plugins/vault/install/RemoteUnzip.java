@@ -0,0 +1,347 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2026 agent
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.hudsonci.plugins.vault.install;
+
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.remoting.FastPipedInputStream;
+import hudson.remoting.FastPipedOutputStream;
+import hudson.remoting.Pipe;
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Unzips an archive into a location as it is written.
+ *
+ * For remote locations the archive is pushed through a windowed {@link Pipe}, so data is streamed in large chunks
+ * without waiting on a round trip for each read, and extracted on the node while the rest is still in flight.
+ *
+ * When digests are given, the node verifies the archive and its entries as it extracts them, failing the transfer on
+ * any mismatch.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class RemoteUnzip
+{
+    private static final Logger log = LoggerFactory.getLogger(RemoteUnzip.class);
+
+    private static final int BUFFER_SIZE = 128 * 1024;
+
+    private final FilePath location;
+
+    private final AtomicLong transferred;
+
+    private String digest;
+
+    private HashMap<String,String> entryDigests;
+
+    private OutputStream output;
+
+    private Future<Void> future;
+
+    public RemoteUnzip(final FilePath location) {
+        this(location, new AtomicLong());
+    }
+
+    /**
+     * @param transferred   Incremented as archive bytes are written.
+     */
+    public RemoteUnzip(final FilePath location, final AtomicLong transferred) {
+        assert location != null;
+        assert transferred != null;
+        this.location = location;
+        this.transferred = transferred;
+    }
+
+    /**
+     * Set the SHA-256 (hex) expected of the whole archive; null to not verify it.
+     */
+    public void setDigest(final String digest) {
+        this.digest = digest;
+    }
+
+    /**
+     * Set the SHA-256 (hex) expected of the content of entries, by name; entries not given are not verified.
+     */
+    public void setEntryDigests(final Map<String,String> digests) {
+        this.entryDigests = digests != null && !digests.isEmpty() ? new HashMap<String,String>(digests) : null;
+    }
+
+    /**
+     * Start extracting on the node; returns the stream the archive is to be written to.
+     */
+    public OutputStream start() throws IOException, InterruptedException {
+        assert future == null;
+
+        if (location.isRemote()) {
+            Pipe pipe = Pipe.createLocalToRemote();
+            future = location.actAsync(new Unpack(pipe, digest, entryDigests));
+            output = new BufferedOutputStream(pipe.getOut(), BUFFER_SIZE);
+        }
+        else {
+            FastPipedOutputStream pipe = new FastPipedOutputStream();
+            FastPipedInputStream input = new FastPipedInputStream(pipe, BUFFER_SIZE);
+            output = pipe;
+            future = location.actAsync(new Unpack(input, digest, entryDigests));
+        }
+
+        return new FilterOutputStream(output)
+        {
+            @Override
+            public void write(final int b) throws IOException {
+                out.write(b);
+                transferred.incrementAndGet();
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                out.write(b, off, len);
+                transferred.addAndGet(len);
+            }
+        };
+    }
+
+    /**
+     * Copy the given archive to the location.
+     */
+    public void copyFrom(final InputStream input) throws IOException, InterruptedException {
+        assert input != null;
+
+        OutputStream output = start();
+        boolean finished = false;
+        try {
+            byte[] buff = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = input.read(buff)) != -1) {
+                output.write(buff, 0, n);
+            }
+            finish();
+            finished = true;
+        }
+        finally {
+            if (!finished) {
+                abort();
+            }
+        }
+    }
+
+    /**
+     * Signal the end of the archive and wait for extraction to complete.
+     */
+    public void finish() throws IOException, InterruptedException {
+        assert future != null;
+
+        output.close();
+        try {
+            future.get();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw (IOException) new IOException("Failed to unzip to: " + location).initCause(cause);
+        }
+    }
+
+    /**
+     * Give up on the transfer; the location is left partially extracted.
+     */
+    public void abort() {
+        if (future == null) {
+            return;
+        }
+
+        try {
+            output.close();
+        }
+        catch (IOException e) {
+            log.debug("Failed to close transfer stream", e);
+        }
+        future.cancel(true);
+    }
+
+    /**
+     * Extract the archive read from the given stream into the directory.
+     */
+    static void unzip(final File dir, final InputStream input) throws IOException {
+        unzip(dir, input, null);
+    }
+
+    /**
+     * Extract the archive read from the given stream into the directory, verifying the content of entries which have an
+     * expected digest as they are written.
+     */
+    static void unzip(final File dir, final InputStream input, final Map<String,String> digests) throws IOException {
+        String root = dir.getCanonicalPath() + File.separator;
+        ZipInputStream zip = new ZipInputStream(input);
+        byte[] buff = new byte[BUFFER_SIZE];
+
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            File file = new File(dir, entry.getName());
+            if (!file.getCanonicalPath().startsWith(root)) {
+                throw new IOException("Archive entry outside of install location: " + entry.getName());
+            }
+
+            if (entry.isDirectory()) {
+                if (!file.isDirectory() && !file.mkdirs()) {
+                    throw new IOException("Failed to create directory: " + file);
+                }
+                continue;
+            }
+
+            File parent = file.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Failed to create directory: " + parent);
+            }
+
+            String expected = digests != null ? digests.get(entry.getName()) : null;
+            MessageDigest md = expected != null ? newDigest() : null;
+
+            OutputStream output = new FileOutputStream(file);
+            try {
+                int n;
+                while ((n = zip.read(buff)) != -1) {
+                    output.write(buff, 0, n);
+                    if (md != null) {
+                        md.update(buff, 0, n);
+                    }
+                }
+            }
+            finally {
+                output.close();
+            }
+            file.setLastModified(entry.getTime());
+
+            if (md != null && !expected.equals(toHex(md.digest()))) {
+                throw new IOException("Archive entry is corrupt: " + entry.getName());
+            }
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new Error(e);
+        }
+    }
+
+    private static String toHex(final byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Extracts the archive read from the pipe.
+     */
+    private static class Unpack
+        implements FileCallable<Void>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Pipe pipe;
+
+        /** Used in place of the pipe for local locations. */
+        private final transient InputStream local;
+
+        private final String digest;
+
+        private final HashMap<String,String> entryDigests;
+
+        private Unpack(final Pipe pipe, final String digest, final HashMap<String,String> entryDigests) {
+            this.pipe = pipe;
+            this.local = null;
+            this.digest = digest;
+            this.entryDigests = entryDigests;
+        }
+
+        private Unpack(final InputStream local, final String digest, final HashMap<String,String> entryDigests) {
+            this.pipe = null;
+            this.local = local;
+            this.digest = digest;
+            this.entryDigests = entryDigests;
+        }
+
+        public Void invoke(final File dir, final VirtualChannel channel) throws IOException {
+            InputStream input = new BufferedInputStream(local != null ? local : pipe.getIn(), BUFFER_SIZE);
+
+            // Digest everything received, as it is read, including anything after the end of the zip
+            MessageDigest md = null;
+            if (digest != null) {
+                md = newDigest();
+                input = new DigestInputStream(input, md);
+            }
+
+            try {
+                unzip(dir, input, entryDigests);
+            }
+            finally {
+                // Consume anything left so the sender is never blocked on a full window
+                byte[] buff = new byte[BUFFER_SIZE];
+                try {
+                    while (input.read(buff) != -1) {
+                        // ignore
+                    }
+                }
+                finally {
+                    input.close();
+                }
+            }
+
+            if (md != null && !digest.equals(toHex(md.digest()))) {
+                throw new IOException("Archive is corrupt; digest does not match: " + digest);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2026 agent
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.hudsonci.plugins.vault.install;
+
+import hudson.FilePath.FileCallable;
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Enumeration;
+
+/**
+ * Unpacks a package cache archive which the node reads directly from a shared mount of the master's chunk store.
+ *
+ * Chunks are checked for size before anything is extracted, and verified against their SHA-1 as they are read.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class SharedCacheUnpack
+    implements FileCallable<Boolean>
+{
+    private static final long serialVersionUID = 1L;
+
+    private final String chunksPath;
+
+    private final String[] ids;
+
+    private final long[] sizes;
+
+    /**
+     * @param chunksPath    The chunk store directory as seen by the node.
+     */
+    public SharedCacheUnpack(final String chunksPath, final String[] ids, final long[] sizes) {
+        assert chunksPath != null;
+        assert ids != null;
+        assert sizes != null && sizes.length == ids.length;
+
+        this.chunksPath = chunksPath;
+        this.ids = ids;
+        this.sizes = sizes;
+    }
+
+    /**
+     * @return  False if the chunks are not visible to the node, in which case nothing has been extracted.
+     */
+    public Boolean invoke(final File dir, final VirtualChannel channel) throws IOException {
+        final File chunksDir = new File(chunksPath);
+        for (int i = 0; i < ids.length; i++) {
+            File file = getChunkFile(chunksDir, ids[i]);
+            if (!file.isFile() || file.length() != sizes[i]) {
+                return false;
+            }
+        }
+
+        InputStream input = new BufferedInputStream(new SequenceInputStream(new Enumeration<InputStream>()
+        {
+            private int index;
+
+            private VerifiedChunk current;
+
+            public boolean hasMoreElements() {
+                return index < ids.length;
+            }
+
+            public InputStream nextElement() {
+                // Sequence only moves on once the previous chunk is exhausted, so it can be verified now
+                if (current != null) {
+                    current.verify();
+                }
+
+                File file = getChunkFile(chunksDir, ids[index]);
+                try {
+                    current = new VerifiedChunk(file, ids[index]);
+                }
+                catch (IOException e) {
+                    // Removed since checked; fail as a mismatch so the archive is transferred instead
+                    throw (ChunkMismatch) new ChunkMismatch("Shared cache chunk is missing: " + file).initCause(e);
+                }
+
+                if (++index == ids.length) {
+                    return new SequenceInputStream(current, new InputStream()
+                    {
+                        @Override
+                        public int read() {
+                            current.verify();
+                            return -1;
+                        }
+                    });
+                }
+                return current;
+            }
+        }), 128 * 1024);
+
+        try {
+            RemoteUnzip.unzip(dir, input);
+
+            // Read past the central directory so the trailing chunks are verified too
+            byte[] buff = new byte[64 * 1024];
+            while (input.read(buff) != -1) {
+                // ignore
+            }
+        }
+        catch (ChunkMismatch e) {
+            throw (IOException) new IOException(e.getMessage()).initCause(e.getCause());
+        }
+        finally {
+            input.close();
+        }
+
+        return true;
+    }
+
+    private static File getChunkFile(final File dir, final String id) {
+        return new File(new File(dir, id.substring(0, 2)), id.substring(2));
+    }
+
+    /**
+     * A chunk file which is hashed as it is read.
+     */
+    private static class VerifiedChunk
+        extends DigestInputStream
+    {
+        private final File file;
+
+        private final String id;
+
+        private VerifiedChunk(final File file, final String id) throws IOException {
+            super(new FileInputStream(file), createDigest());
+            this.file = file;
+            this.id = id;
+        }
+
+        private void verify() {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : getMessageDigest().digest()) {
+                hex.append(String.format("%02x", b & 0xFF));
+            }
+            if (!hex.toString().equals(id)) {
+                throw new ChunkMismatch("Shared cache chunk does not match its hash: " + file);
+            }
+        }
+
+        private static MessageDigest createDigest() {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new Error(e);
+            }
+        }
+    }
+
+    /**
+     * Thrown from within the stream enumeration, which can not throw checked exceptions.
+     */
+    private static class ChunkMismatch
+        extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        private ChunkMismatch(final String message) {
+            super(message);
+        }
+    }
+}
@@ -26,6 +26,8 @@ package org.hudsonci.plugins.vault.slave;
 
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Util;
+import hudson.console.LineTransformationOutputStream;
 import hudson.model.BuildListener;
 import hudson.model.Environment;
 import hudson.model.TaskListener;
@@ -37,12 +39,25 @@ import hudson.remoting.Channel;
 import hudson.slaves.ComputerListener;
 import hudson.slaves.NodeProperty;
 import hudson.slaves.NodePropertyDescriptor;
+import hudson.util.StreamTaskListener;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.enterprise.inject.Typed;
 import javax.inject.Named;
@@ -53,6 +68,7 @@ import org.codehaus.plexus.interpolation.PropertiesBasedValueSource;
 import org.codehaus.plexus.interpolation.StringSearchInterpolator;
 import org.hudsonci.plugins.vault.Bundle;
 import org.hudsonci.plugins.vault.Vault;
+import org.hudsonci.plugins.vault.install.InstallCollector;
 import org.hudsonci.plugins.vault.install.NodeContext;
 import org.hudsonci.plugins.vault.install.PackageInstaller;
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -70,19 +86,68 @@ public class NodeOnlineInstaller
 {
     private static final Logger log = LoggerFactory.getLogger(NodeOnlineInstaller.class);
 
+    /**
+     * Number of entries installed at the same time when not configured.
+     */
+    private static final int DEFAULT_CONCURRENCY = 4;
+
     private final List<Entry> entries;
 
+    private final int concurrency;
+
     @DataBoundConstructor
-    public NodeOnlineInstaller(final List<Entry> config) {
+    public NodeOnlineInstaller(final List<Entry> config, final String concurrency) {
         // Parameter must match what is used in config.jelly
         this.entries = config;
+
+        int value = 0;
+        String tmp = Util.fixEmptyAndTrim(concurrency);
+        if (tmp != null) {
+            try {
+                value = Integer.parseInt(tmp);
+            }
+            catch (NumberFormatException e) {
+                log.warn("Invalid install concurrency: {}", tmp);
+            }
+        }
+        this.concurrency = value;
     }
 
     public List<Entry> getEntries() {
         return entries;
     }
 
-    private void install(final Computer c, final Channel channel, final FilePath root, final TaskListener listener)
+    /**
+     * The maximum number of entries installed at the same time.
+     */
+    public int getConcurrency() {
+        return concurrency > 0 ? concurrency : DEFAULT_CONCURRENCY;
+    }
+
+    /**
+     * Check if any entries are to be installed once the node is online.
+     */
+    public boolean hasDeferredEntries() {
+        return !getEntries(true).isEmpty();
+    }
+
+    private List<Entry> getEntries(final boolean deferred) {
+        List<Entry> selected = new ArrayList<Entry>();
+        if (entries != null) {
+            for (Entry entry : entries) {
+                if (entry.isDeferred() == deferred) {
+                    selected.add(entry);
+                }
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Install either the blocking or the deferred entries.
+     */
+    private void install(final Computer c, final Channel channel, final FilePath root, final TaskListener listener,
+                         final boolean deferred)
         throws Exception
     {
         assert c != null;
@@ -90,43 +155,128 @@ public class NodeOnlineInstaller
         assert root != null;
         assert listener != null;
 
+        List<Entry> entries = getEntries(deferred);
+
         // Skip if there is nothing configured
-        if (entries == null || entries.isEmpty()) {
+        if (entries.isEmpty()) {
             return;
         }
         
-        log.debug("Installing packages on: {}", c.getDisplayName());
+        final String nodeName = c.getDisplayName();
+        log.debug("Installing {} packages on: {}", deferred ? "deferred" : "blocking", nodeName);
 
         NodeContext context = NodeContext.get(c.getNode(), channel);
 
-        for (Entry entry : entries) {
-            log.debug("Entry: {}", entry);
-            
-            PackageInstaller installer = new PackageInstaller();
+        int threads = Math.min(getConcurrency(), entries.size());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+        {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            public Thread newThread(final Runnable task) {
+                Thread thread = new Thread(task, "vault-install-" + nodeName + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            List<Future<EntryInstall>> results = new ArrayList<Future<EntryInstall>>();
+            for (Entry entry : entries) {
+                log.debug("Entry: {}", entry);
+
+                PackageInstaller installer = new PackageInstaller();
+
+                installer.setBundleName(entry.getName());
+
+                // Default path to bundle name if not given
+                String path = entry.getPath();
+                if (path == null || path.trim().length() == 0) {
+                    path = entry.getName();
+                }
 
-            installer.setBundleName(entry.getName());
+                installer.setLocation(resolveLocation(context, root, path));
+                installer.setNode(c.getNode());
+                installer.setChannel(channel);
 
-            // Default path to bundle name if not given
-            String path = entry.getPath();
-            if (path == null || path.trim().length() == 0) {
-                path = entry.getName();
+                results.add(executor.submit(new EntryInstall(nodeName, entry, installer)));
             }
 
-            installer.setLocation(resolveLocation(context, root, path));
-            installer.setNode(c.getNode());
-            installer.setChannel(channel);
-            installer.setListener(listener);
+            // Replay each entry's output as a block, in configured order
+            List<EntryInstall> failed = new ArrayList<EntryInstall>();
+            for (Future<EntryInstall> result : results) {
+                EntryInstall install = result.get();
+                install.output.writeTo(listener.getLogger());
+                if (install.failure != null) {
+                    failed.add(install);
+                }
+            }
 
-            try {
-                installer.install();
+            if (!failed.isEmpty()) {
+                listener.error("%d of %d package installations failed:", failed.size(), entries.size());
+                for (EntryInstall install : failed) {
+                    listener.getLogger().printf("  %s: %s", install.entry.getName(), install.failure).println();
+                }
             }
-            catch (Exception e) {
-                listener.error("Package installation failed: %s", e);
+        }
+        catch (ExecutionException e) {
+            // Exceptions are captured by the task, so this can only be an error
+            throw (Error) e.getCause();
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns where the entry of the node for the given bundle installs it, or null if the node has no such entry.
+     */
+    public static FilePath getInstallLocation(final Node node, final NodeContext context, final FilePath root,
+                                              final String bundleName)
+        throws Exception
+    {
+        assert node != null;
+        assert bundleName != null;
+
+        String path = null;
+        for (NodeProperty prop : node.getNodeProperties()) {
+            if (prop instanceof NodeOnlineInstaller && ((NodeOnlineInstaller)prop).getEntries() != null) {
+                for (Entry entry : ((NodeOnlineInstaller)prop).getEntries()) {
+                    if (bundleName.equals(entry.getName())) {
+                        // Default path to bundle name if not given
+                        path = entry.getPath() != null && entry.getPath().trim().length() != 0
+                            ? entry.getPath() : bundleName;
+                    }
+                }
+            }
+        }
+
+        return path != null ? resolveLocation(context, root, path) : null;
+    }
+
+    /**
+     * Returns where the entries of the given node install their bundles.
+     */
+    public static List<FilePath> getInstallLocations(final Node node, final NodeContext context, final FilePath root)
+        throws Exception
+    {
+        assert node != null;
+
+        List<FilePath> locations = new ArrayList<FilePath>();
+        for (NodeProperty prop : node.getNodeProperties()) {
+            if (prop instanceof NodeOnlineInstaller && ((NodeOnlineInstaller)prop).getEntries() != null) {
+                for (Entry entry : ((NodeOnlineInstaller)prop).getEntries()) {
+                    String path = entry.getPath();
+                    if (path == null || path.trim().length() == 0) {
+                        path = entry.getName();
+                    }
+                    locations.add(resolveLocation(context, root, path));
+                }
             }
         }
+        return locations;
     }
 
-    private FilePath resolveLocation(final NodeContext context, final FilePath root, final String path) throws Exception {
+    private static FilePath resolveLocation(final NodeContext context, final FilePath root, final String path) throws Exception {
         assert context != null;
         assert root != null;
         assert path != null;
@@ -162,9 +312,54 @@ public class NodeOnlineInstaller
     public String toString() {
         return "NodeOnlineInstaller{" +
             "entries=" + entries +
+            ", concurrency=" + concurrency +
             '}';
     }
 
+    /**
+     * Installs a single entry, capturing its output so it can be logged as a block.
+     */
+    private static class EntryInstall
+        implements Callable<EntryInstall>
+    {
+        private final String nodeName;
+
+        private final Entry entry;
+
+        private final PackageInstaller installer;
+
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        private Exception failure;
+
+        private EntryInstall(final String nodeName, final Entry entry, final PackageInstaller installer) {
+            this.nodeName = nodeName;
+            this.entry = entry;
+            this.installer = installer;
+        }
+
+        public EntryInstall call() {
+            TaskListener listener = new StreamTaskListener(output);
+            installer.setListener(listener);
+
+            DC.push(nodeName);
+            try {
+                installer.install();
+                ReadinessLabels.markReady(installer.getNode(), entry.getName());
+            }
+            catch (Exception e) {
+                failure = e;
+                listener.error("Package installation failed: %s", e);
+            }
+            finally {
+                DC.pop();
+            }
+
+            listener.getLogger().flush();
+            return this;
+        }
+    }
+
     @Named
     @Singleton
     @Typed(Descriptor.class)
@@ -193,10 +388,14 @@ public class NodeOnlineInstaller
         /** The path to install on remote node. */
         private final String path;
 
+        /** Install after the node is online, instead of before. */
+        private final boolean deferred;
+
         @DataBoundConstructor
-        public Entry(final String name, final String path) {
+        public Entry(final String name, final String path, final boolean deferred) {
             this.name = name;
             this.path = path;
+            this.deferred = deferred;
         }
 
         public String getName() {
@@ -207,23 +406,49 @@ public class NodeOnlineInstaller
             return path;
         }
 
+        public boolean isDeferred() {
+            return deferred;
+        }
+
         @Override
         public String toString() {
             return "Entry{" +
                 "name='" + name + '\'' +
                 ", path='" + path + '\'' +
+                ", deferred=" + deferred +
                 '}';
         }
     }
 
     /**
      * Allow packages to be installed when a node becomes online.
+     *
+     * Blocking entries are installed before the node is online; deferred entries in the background once it is.
      */
     @Named
     @Singleton
     public static class ComputerListenerImpl
         extends ComputerListener
     {
+        /** Most nodes whose deferred installs and collection run at once; others queue, as when many connect. */
+        private static final int MAX_THREADS = 4;
+
+        private final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+            {
+                private final AtomicInteger counter = new AtomicInteger();
+
+                public Thread newThread(final Runnable task) {
+                    Thread thread = new Thread(task, "vault-deferred-install-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+        public ComputerListenerImpl() {
+            executor.allowCoreThreadTimeOut(true);
+        }
+
         @Override
         public void preOnline(final Computer c, final Channel channel, final FilePath root, final TaskListener listener)
             throws IOException, InterruptedException
@@ -232,12 +457,88 @@ public class NodeOnlineInstaller
             Node node = c.getNode();
             log.debug("Preparing to install node packages: {}", node.getDisplayName());
             
+            install(c, channel, root, listener, false);
+        }
+
+        @Override
+        public void onOnline(final Computer c, final TaskListener listener) throws IOException, InterruptedException {
+            assert c != null;
+            final Node node = c.getNode();
+            final FilePath root = node.getRootPath();
+
+            // Only remote nodes go through preOnline, so only they have deferred installs
+            if (!(c.getChannel() instanceof Channel) || root == null) {
+                return;
+            }
+            final Channel channel = (Channel) c.getChannel();
+
+            boolean deferred = false;
+            for (NodeProperty prop : node.getNodeProperties()) {
+                if (prop instanceof NodeOnlineInstaller && ((NodeOnlineInstaller)prop).hasDeferredEntries()) {
+                    log.debug("Scheduling deferred package installs: {}", node.getDisplayName());
+                    deferred = true;
+                    break;
+                }
+            }
+
+            // Remove installations nothing refers to any more, once any deferred installs are done
+            final boolean installDeferred = deferred;
+            executor.execute(new Runnable()
+            {
+                public void run() {
+                    if (installDeferred) {
+                        // The launch log is done with once onOnline returns
+                        install(c, channel, root, new StreamTaskListener(new LogOutputStream()), true);
+                    }
+                    collect(node, channel);
+                }
+            });
+        }
+
+        @Override
+        public void onOffline(final Computer c) {
+            Node node = c.getNode();
+            if (node != null) {
+                ReadinessLabels.clear(node);
+            }
+        }
+
+        /**
+         * Writes each line to the plugin log.
+         */
+        private static class LogOutputStream
+            extends LineTransformationOutputStream
+        {
+            @Override
+            protected void eol(final byte[] b, final int len) throws IOException {
+                log.info(trimEOL(new String(b, 0, len)));
+            }
+        }
+
+        private void collect(final Node node, final Channel channel) {
+            DC.push(node.getDisplayName());
+            try {
+                new InstallCollector(node, channel).collect();
+            }
+            catch (Exception e) {
+                log.error("Failed to remove unused installations", e);
+            }
+            finally {
+                DC.pop();
+            }
+        }
+
+        private void install(final Computer c, final Channel channel, final FilePath root, final TaskListener listener,
+                             final boolean deferred)
+        {
+            Node node = c.getNode();
+
             DC.push(node.getDisplayName());
             try {
                 for (NodeProperty prop : node.getNodeProperties()) {
                     if (prop instanceof NodeOnlineInstaller) {
                         try {
-                            ((NodeOnlineInstaller)prop).install(c, channel, root, listener);
+                            ((NodeOnlineInstaller)prop).install(c, channel, root, listener, deferred);
                         }
                         catch (Exception e) {
                             log.error("Installation failed", e);
@@ -250,4 +551,4 @@ public class NodeOnlineInstaller
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,160 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2026 agent
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.hudsonci.plugins.vault.slave;
+
+import hudson.model.Hudson;
+import hudson.model.Label;
+import hudson.model.LabelFinder;
+import hudson.model.Node;
+import hudson.model.labels.LabelAtom;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Labels nodes with <tt>vault-ready-&lt;bundle&gt;</tt> for each bundle installed since the node came online.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Named
+@Singleton
+public class ReadinessLabels
+    extends LabelFinder
+{
+    private static final Logger log = LoggerFactory.getLogger(ReadinessLabels.class);
+
+    public static final String PREFIX = "vault-ready-";
+
+    private static final Map<String,Set<String>> ready = new ConcurrentHashMap<String,Set<String>>();
+
+    private static volatile Method resetMethod;
+
+    @Override
+    public Collection<LabelAtom> findLabels(final Node node) {
+        Set<String> bundles = ready.get(node.getNodeName());
+        if (bundles == null) {
+            return Collections.emptySet();
+        }
+
+        List<LabelAtom> labels = new ArrayList<LabelAtom>();
+        synchronized (bundles) {
+            for (String bundle : bundles) {
+                labels.add(Hudson.getInstance().getLabelAtom(getLabel(bundle)));
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Returns the label name for the given bundle; characters not allowed in label expressions are replaced.
+     */
+    public static String getLabel(final String bundle) {
+        assert bundle != null;
+        return PREFIX + bundle.replaceAll("[^\\w.\\-]", "_");
+    }
+
+    /**
+     * Label the node as ready for the given bundle.
+     */
+    public static void markReady(final Node node, final String bundle) {
+        assert node != null;
+        assert bundle != null;
+
+        String name = node.getNodeName();
+        Set<String> bundles;
+        synchronized (ready) {
+            bundles = ready.get(name);
+            if (bundles == null) {
+                bundles = new HashSet<String>();
+                ready.put(name, bundles);
+            }
+        }
+
+        boolean added;
+        synchronized (bundles) {
+            added = bundles.add(bundle);
+        }
+        if (added) {
+            log.debug("Node: {} is ready for bundle: {}", node.getDisplayName(), bundle);
+            refresh(node);
+        }
+    }
+
+    /**
+     * Forget the bundles the node was ready for; installs are checked again when it comes back online.
+     */
+    public static void clear(final Node node) {
+        assert node != null;
+        if (ready.remove(node.getNodeName()) != null) {
+            // Or labels keep the node until the next change, while the next install rewrites what it is ready for
+            refresh(node);
+        }
+    }
+
+    /**
+     * Labels cache their nodes; reset those whose cached membership of the node no longer matches its labels.
+     */
+    private static void refresh(final Node node) {
+        for (Label label : Hudson.getInstance().getLabels()) {
+            if (label.contains(node) != label.matches(node)) {
+                reset(label);
+            }
+        }
+    }
+
+    /**
+     * Known dependency on Hudson internals: <tt>Label.reset()</tt> is package-private, so it is called reflectively.
+     * The only public way to have labels recomputed, <tt>Hudson.setNodes()</tt>, saves the configuration and rebuilds
+     * every computer.  Should the method go away, labels are only recomputed when Hudson next trims them.
+     */
+    private static void reset(final Label label) {
+        Method method = resetMethod;
+        try {
+            if (method == null) {
+                method = Label.class.getDeclaredMethod("reset");
+                method.setAccessible(true);
+                resetMethod = method;
+            }
+            method.invoke(label);
+        }
+        catch (Exception e) {
+            log.warn("Failed to refresh label: {}", label, e);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2026 agent
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.hudsonci.plugins.vault.slave;
+
+import hudson.Util;
+import hudson.model.Descriptor;
+import hudson.model.Node;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+
+import java.io.File;
+
+import javax.enterprise.inject.Typed;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.hudsonci.plugins.vault.Vault;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Declares that a node can see the package cache of the master through a shared filesystem mount.
+ *
+ * Packages are then read by the node directly from the mount, and only control messages pass over the channel.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class SharedPackageCache
+    extends NodeProperty<Node>
+{
+    private final String masterPath;
+
+    private final String nodePath;
+
+    @DataBoundConstructor
+    public SharedPackageCache(final String masterPath, final String nodePath) {
+        this.masterPath = Util.fixEmptyAndTrim(masterPath);
+        this.nodePath = Util.fixEmptyAndTrim(nodePath);
+    }
+
+    /**
+     * The shared directory as seen by the master; defaults to the vault cache directory.
+     */
+    public String getMasterPath() {
+        return masterPath;
+    }
+
+    /**
+     * The shared directory as seen by the node.
+     */
+    public String getNodePath() {
+        return nodePath;
+    }
+
+    /**
+     * Translate a master file to its path on the node.
+     *
+     * @return  The node path, or null if the file is not within the shared directory.
+     */
+    public String mapPath(final File file) {
+        assert file != null;
+
+        if (nodePath == null) {
+            return null;
+        }
+
+        File root = masterPath != null ? new File(masterPath) : Vault.get().getCacheDir();
+        String rootPath = root.getAbsolutePath();
+        String path = file.getAbsolutePath();
+        if (path.equals(rootPath)) {
+            return nodePath;
+        }
+        if (!path.startsWith(rootPath + File.separator)) {
+            return null;
+        }
+
+        String relative = path.substring(rootPath.length() + 1).replace(File.separatorChar, '/');
+        return nodePath.endsWith("/") || nodePath.endsWith("\\") ? nodePath + relative : nodePath + "/" + relative;
+    }
+
+    @Override
+    public String toString() {
+        return "SharedPackageCache{" +
+            "masterPath='" + masterPath + '\'' +
+            ", nodePath='" + nodePath + '\'' +
+            '}';
+    }
+
+    @Named
+    @Singleton
+    @Typed(Descriptor.class)
+    public static class DescriptorImpl
+        extends NodePropertyDescriptor
+    {
+        @Override
+        public String getDisplayName() {
+            // TODO: Use localizer
+            return "Vault shared package cache";
+        }
+    }
+}
@@ -27,13 +27,19 @@ package org.hudsonci.plugins.vault.tool;
 import hudson.FilePath;
 import hudson.model.TaskListener;
 import hudson.model.Node;
+import hudson.tools.InstallSourceProperty;
+import hudson.tools.ToolDescriptor;
 import hudson.tools.ToolInstaller;
 import hudson.tools.ToolInstallerDescriptor;
 import hudson.tools.ToolInstallation;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.hudsonci.plugins.vault.Bundle;
 import org.hudsonci.plugins.vault.Vault;
@@ -71,6 +77,74 @@ public abstract class ToolInstallerSupport
         return bundleName;
     }
 
+    /**
+     * Returns where this installer installs the given tool on a node.
+     */
+    public FilePath getInstallLocation(final ToolInstallation tool, final Node node) {
+        return preferredLocation(tool, node);
+    }
+
+    /**
+     * Returns the installers of tools which install the given bundle on the node, by where each installs its tool.
+     */
+    public static Map<FilePath,ToolInstallerSupport> getInstallers(final Node node, final String bundleName) {
+        assert node != null;
+        assert bundleName != null;
+
+        Map<FilePath,ToolInstallerSupport> installers = new LinkedHashMap<FilePath,ToolInstallerSupport>();
+        for (ToolDescriptor<?> descriptor : ToolInstallation.all()) {
+            for (ToolInstallation tool : descriptor.getInstallations()) {
+                InstallSourceProperty source = tool.getProperties().get(InstallSourceProperty.class);
+                if (source == null) {
+                    continue;
+                }
+                for (ToolInstaller installer : source.installers) {
+                    if (installer instanceof ToolInstallerSupport && installer.appliesTo(node)
+                        && bundleName.equals(((ToolInstallerSupport)installer).getBundleName())) {
+                        installers.put(((ToolInstallerSupport)installer).getInstallLocation(tool, node),
+                            (ToolInstallerSupport)installer);
+                    }
+                }
+            }
+        }
+        return installers;
+    }
+
+    /**
+     * Set up the given installer to install the bundle of this tool installer, as it would itself.
+     */
+    public void configure(final PackageInstaller installer) {
+        assert installer != null;
+
+        installer.setBundleName(getBundleName());
+        if (this instanceof PackageInstallListener) {
+            installer.addInstallListener((PackageInstallListener)this);
+        }
+    }
+
+    /**
+     * Returns where the tools which are installed from the Vault on the given node are installed.
+     */
+    public static List<FilePath> getInstallLocations(final Node node) {
+        assert node != null;
+
+        List<FilePath> locations = new ArrayList<FilePath>();
+        for (ToolDescriptor<?> descriptor : ToolInstallation.all()) {
+            for (ToolInstallation tool : descriptor.getInstallations()) {
+                InstallSourceProperty source = tool.getProperties().get(InstallSourceProperty.class);
+                if (source == null) {
+                    continue;
+                }
+                for (ToolInstaller installer : source.installers) {
+                    if (installer instanceof ToolInstallerSupport && installer.appliesTo(node)) {
+                        locations.add(((ToolInstallerSupport)installer).getInstallLocation(tool, node));
+                    }
+                }
+            }
+        }
+        return locations;
+    }
+
     @Override
     public FilePath performInstallation(final ToolInstallation tool, final Node node, final TaskListener listener)
         throws IOException, InterruptedException
@@ -78,17 +152,13 @@ public abstract class ToolInstallerSupport
         assert listener != null;
         
         PackageInstaller installer = new PackageInstaller();
-        installer.setBundleName(getBundleName());
+        configure(installer);
         installer.setNode(node);
         installer.setListener(listener);
 
         FilePath location = preferredLocation(tool, node);
         installer.setLocation(location);
 
-        if (this instanceof PackageInstallListener) {
-            installer.addInstallListener((PackageInstallListener)this);
-        }
-
         try {
             location = installer.install();
         }
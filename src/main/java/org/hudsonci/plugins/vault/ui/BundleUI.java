@@ -27,8 +27,10 @@ package org.hudsonci.plugins.vault.ui;
 import java.util.Collection;
 
 import org.hudsonci.plugins.vault.Bundle;
+import org.hudsonci.plugins.vault.CacheBuildQueue;
 import org.hudsonci.plugins.vault.Package;
 import org.hudsonci.plugins.vault.Vault;
+import org.hudsonci.plugins.vault.install.BundlePush;
 import org.hudsonci.plugins.vault.util.MultimapUtil;
 import org.hudsonci.utils.plugin.ui.AdministratorUIComponent;
 import org.hudsonci.utils.plugin.ui.JellyAccessible;
@@ -81,6 +83,27 @@ public class BundleUI
         return null;
     }
 
+    /**
+     * Progress of the most recent push of the bundle to nodes.
+     */
+    @StaplerAccessible
+    public Object getProgress() {
+        BundlePush push = BundlePush.get(data.getName());
+        if (push != null) {
+            return new PushUI(this, push);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the queued or running cache build of the given package, or null.
+     */
+    @JellyAccessible
+    public CacheBuildQueue.Job getBuild(final Package pkg) {
+        assert pkg != null;
+        return Vault.get().getBuildQueue().getActive(pkg);
+    }
+
     /**
      * Render package properties suitable for display in the package table.
      */
@@ -106,7 +129,7 @@ public class BundleUI
             Vault.get().renameBundle(data.getName(), name);
         }
         else {
-            Vault.get().save();
+            Vault.get().save(data);
         }
 
         redirectSelf(req, resp);
@@ -123,6 +146,17 @@ public class BundleUI
         redirectParent(req, resp);
     }
 
+    @StaplerAccessible
+    public void doPush(final StaplerRequest req, final StaplerResponse resp)
+        throws Exception
+    {
+        checkPermission();
+
+        BundlePush.start(data);
+
+        redirect(req, resp, "progress");
+    }
+
     @StaplerAccessible
     public void doCreatePackage(final StaplerRequest req, final StaplerResponse resp,
                                 final @QueryParameter(value="path", required=true, fixEmpty=true) String path,
@@ -141,16 +175,17 @@ public class BundleUI
 
         if (properties != null && properties.trim().length() != 0) {
             MultimapUtil.load(pkg.getProperties(), properties);
+            Package.checkProperties(pkg.getProperties());
         }
 
         pkg.setDescription(description);
         
         data.addPackage(pkg);
 
-        // Create the cache
-        Vault.get().buildPackageCache(data, pkg);
+        Vault.get().save(data);
 
-        Vault.get().save();
+        // Create the cache
+        Vault.get().getBuildQueue().submit(data, pkg);
 
         redirectSelf(req, resp);
     }
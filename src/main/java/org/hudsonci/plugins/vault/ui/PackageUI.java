@@ -24,6 +24,10 @@
 
 package org.hudsonci.plugins.vault.ui;
 
+import java.util.zip.Deflater;
+
+import org.hudsonci.plugins.vault.CacheBuildQueue;
+import org.hudsonci.plugins.vault.CompressionPolicy;
 import org.hudsonci.plugins.vault.Package;
 import org.hudsonci.plugins.vault.Vault;
 import org.hudsonci.plugins.vault.util.MultimapUtil;
@@ -34,6 +38,9 @@ import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+
 /**
  * User-interface for {@link org.hudsonci.plugins.vault.Package}.
  *
@@ -64,6 +71,14 @@ public class PackageUI
         return getIconFileName("archive-icon-48x48.png");
     }
 
+    /**
+     * Returns the queued or running cache build of the package, or null.
+     */
+    @JellyAccessible
+    public CacheBuildQueue.Job getBuild() {
+        return Vault.get().getBuildQueue().getActive(data);
+    }
+
     /**
      * Get properties as <tt>name=value</tt> suitable for rendering in the text area.
      */
@@ -78,27 +93,41 @@ public class PackageUI
                          final @QueryParameter(value="includes", required=false, fixEmpty=true) String includes,
                          final @QueryParameter(value="excludes", required=false, fixEmpty=true) String excludes,
                          final @QueryParameter(value="properties", required=false, fixEmpty=true) String properties,
-                         final @QueryParameter(value="description", required=false, fixEmpty=true) String description)
+                         final @QueryParameter(value="description", required=false, fixEmpty=true) String description,
+                         final @QueryParameter(value="compressionLevel", required=false, fixEmpty=true) Integer compressionLevel,
+                         final @QueryParameter(value="storeExtensions", required=false, fixEmpty=true) String storeExtensions,
+                         final @QueryParameter(value="sampleEntropy", required=false) boolean sampleEntropy)
         throws Exception
     {
         checkPermission();
 
+        // Replace rather than add to the current properties, so removed values no longer match
+        Multimap<String,String> props = null;
+        if (properties != null && properties.trim().length() != 0) {
+            props = HashMultimap.create();
+            MultimapUtil.load(props, properties);
+            Package.checkProperties(props);
+        }
+
         data.setPath(path);
         data.setIncludes(includes);
         data.setExcludes(excludes);
-
-        if (properties != null && properties.trim().length() != 0) {
-            MultimapUtil.load(data.getProperties(), properties);
-        }
-        else {
-            data.setProperties(null);
-        }
+        data.setProperties(props);
 
         data.setDescription(description);
 
-        Vault.get().buildPackageCache(getParent().getData(), data);
+        CompressionPolicy compression = data.getCompression();
+        compression.setLevel(compressionLevel != null ? compressionLevel : Deflater.DEFAULT_COMPRESSION);
+        compression.setStoreExtensions(storeExtensions);
+        compression.setSampleEntropy(sampleEntropy);
+
+        // Selections made with the previous configuration are stale
+        data.changed();
+        getParent().getData().changed();
 
-        Vault.get().save();
+        Vault.get().save(getParent().getData());
+
+        Vault.get().getBuildQueue().submit(getParent().getData(), data);
 
         redirectSelf(req, resp);
     }
@@ -113,7 +142,7 @@ public class PackageUI
 
         Vault.get().removePackageCache(getParent().getData(), data);
 
-        Vault.get().save();
+        Vault.get().save(getParent().getData());
 
         redirectParent(req, resp);
     }
@@ -124,9 +153,7 @@ public class PackageUI
     {
         checkPermission();
 
-        Vault.get().buildPackageCache(getParent().getData(), data);
-
-        Vault.get().save();
+        Vault.get().getBuildQueue().submit(getParent().getData(), data);
 
         redirectParent(req, resp);
     }
@@ -0,0 +1,66 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2026 agent
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.hudsonci.plugins.vault.ui;
+
+import org.hudsonci.plugins.vault.install.BundlePush;
+import org.hudsonci.utils.plugin.ui.AdministratorUIComponent;
+import org.hudsonci.utils.plugin.ui.JellyAccessible;
+
+/**
+ * User-interface for the progress of a {@link BundlePush}.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class PushUI
+    extends AdministratorUIComponent<BundleUI>
+{
+    private final BundlePush data;
+
+    public PushUI(final BundleUI parent, final BundlePush data) {
+        super(parent);
+        assert data != null;
+        this.data = data;
+    }
+
+    @JellyAccessible
+    public BundlePush getData() {
+        return data;
+    }
+
+    @JellyAccessible
+    public BundlePush.State[] getStates() {
+        return BundlePush.State.values();
+    }
+
+    public String getDisplayName() {
+        // TODO: Use localizer
+        return String.format("Push %s", data.getBundleName());
+    }
+
+    @Override
+    public String getIconFileName() {
+        return getIconFileName("archive-icon-48x48.png");
+    }
+}
@@ -30,6 +30,7 @@ import hudson.model.DirectoryBrowserSupport;
 import java.io.File;
 
 import org.hudsonci.plugins.vault.Bundle;
+import org.hudsonci.plugins.vault.CacheBuildQueue;
 import org.hudsonci.plugins.vault.Vault;
 import org.hudsonci.utils.plugin.ui.AdministratorUIComponent;
 import org.hudsonci.utils.plugin.ui.JellyAccessible;
@@ -115,6 +116,26 @@ public class VaultUI
         redirectParent(req, resp);
     }
 
+    @JellyAccessible
+    public CacheBuildQueue getBuildQueue() {
+        return getVault().getBuildQueue();
+    }
+
+    @StaplerAccessible
+    public void doCancelBuild(final StaplerRequest req, final StaplerResponse resp,
+                              final @QueryParameter(value="id", required=true) int id)
+        throws Exception
+    {
+        checkPermission();
+
+        CacheBuildQueue.Job job = getBuildQueue().getJob(id);
+        if (job != null) {
+            job.cancel();
+        }
+
+        redirectParent(req, resp);
+    }
+
     @StaplerAccessible
     public Object getUploads() {
         return new UploadsUI(this);
@@ -0,0 +1,369 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2026 agent
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.hudsonci.plugins.vault.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the entries of a package cache archive; what each was built from and where its data lives in the archive.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ArchiveManifest
+{
+    private static final String SOURCE_PREFIX = "#source=";
+
+    private static final String POLICY_PREFIX = "#policy=";
+
+    /** Version 2 entries have a content digest. */
+    private static final String FORMAT_PREFIX = "#format=";
+
+    private static final String ARCHIVE_DIGEST_PREFIX = "#sha256=";
+
+    private static final int FORMAT = 2;
+
+    private final String source;
+
+    private String policy;
+
+    private String archiveDigest;
+
+    private ArchiveSummary summary;
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    private final Map<String,Entry> byName = new HashMap<String,Entry>();
+
+    public ArchiveManifest(final String source) {
+        assert source != null;
+        this.source = source;
+    }
+
+    /**
+     * The absolute path of the directory the archive was built from.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Describes the compression policy the archive was built with.
+     */
+    public String getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(final String policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * The SHA-256 (hex) of the archive, or null if the manifest predates archive digests.
+     */
+    public String getArchiveDigest() {
+        return archiveDigest;
+    }
+
+    public void setArchiveDigest(final String digest) {
+        this.archiveDigest = digest;
+    }
+
+    /**
+     * Statistics of the build which produced this manifest; not persisted.
+     */
+    public ArchiveSummary getSummary() {
+        return summary;
+    }
+
+    public void setSummary(final ArchiveSummary summary) {
+        this.summary = summary;
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    public Entry getEntry(final String name) {
+        return byName.get(name);
+    }
+
+    public void add(final Entry entry) {
+        assert entry != null;
+        entries.add(entry);
+        byName.put(entry.name, entry);
+    }
+
+    /**
+     * Returns the SHA-256 (hex) of the entry names, sizes and CRCs.
+     *
+     * This identifies the content of the archive; archives of the same files have the same digest regardless of when
+     * they were built, or how they were compressed.
+     */
+    public String getDigest() {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new Error(e);
+        }
+
+        try {
+            for (Entry entry : entries) {
+                md.update(entry.name.getBytes("UTF-8"));
+                md.update((byte) 0);
+                md.update(String.valueOf(entry.size).getBytes("UTF-8"));
+                md.update((byte) 0);
+                md.update(String.valueOf(entry.crc).getBytes("UTF-8"));
+                md.update((byte) '\n');
+            }
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new Error(e);
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : md.digest()) {
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+        return hex.toString();
+    }
+
+    public void save(final File file) throws IOException {
+        assert file != null;
+
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            writer.append(SOURCE_PREFIX).append(source).append('\n');
+            writer.append(FORMAT_PREFIX).append(String.valueOf(FORMAT)).append('\n');
+            if (policy != null) {
+                writer.append(POLICY_PREFIX).append(policy).append('\n');
+            }
+            if (archiveDigest != null) {
+                writer.append(ARCHIVE_DIGEST_PREFIX).append(archiveDigest).append('\n');
+            }
+            for (Entry entry : entries) {
+                writer.append(String.valueOf(entry.size)).append('\t')
+                    .append(String.valueOf(entry.time)).append('\t')
+                    .append(String.valueOf(entry.crc)).append('\t')
+                    .append(String.valueOf(entry.method)).append('\t')
+                    .append(String.valueOf(entry.compressedSize)).append('\t')
+                    .append(String.valueOf(entry.offset)).append('\t')
+                    .append(entry.digest != null ? entry.digest : "-").append('\t')
+                    .append(entry.name).append('\n');
+            }
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    public static ArchiveManifest load(final File file) throws IOException {
+        assert file != null;
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line = reader.readLine();
+            if (line == null || !line.startsWith(SOURCE_PREFIX)) {
+                throw new IOException("Invalid archive manifest: " + file);
+            }
+            ArchiveManifest manifest = new ArchiveManifest(line.substring(SOURCE_PREFIX.length()));
+            int format = 1;
+
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(FORMAT_PREFIX)) {
+                    format = Integer.parseInt(line.substring(FORMAT_PREFIX.length()));
+                    continue;
+                }
+                if (line.startsWith(POLICY_PREFIX)) {
+                    manifest.setPolicy(line.substring(POLICY_PREFIX.length()));
+                    continue;
+                }
+                if (line.startsWith(ARCHIVE_DIGEST_PREFIX)) {
+                    manifest.setArchiveDigest(line.substring(ARCHIVE_DIGEST_PREFIX.length()));
+                    continue;
+                }
+
+                int fields = format >= 2 ? 8 : 7;
+                String[] items = line.split("\t", fields);
+                if (items.length != fields) {
+                    throw new IOException("Invalid archive manifest entry: " + line);
+                }
+
+                Entry entry = new Entry(items[fields - 1]);
+                entry.size = Long.parseLong(items[0]);
+                entry.time = Long.parseLong(items[1]);
+                entry.crc = Long.parseLong(items[2]);
+                entry.method = Integer.parseInt(items[3]);
+                entry.compressedSize = Long.parseLong(items[4]);
+                entry.offset = Long.parseLong(items[5]);
+                if (format >= 2 && !"-".equals(items[6])) {
+                    entry.digest = items[6];
+                }
+                manifest.add(entry);
+            }
+
+            return manifest;
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ArchiveManifest{" +
+            "source='" + source + '\'' +
+            ", entries=" + entries.size() +
+            '}';
+    }
+
+    /**
+     * A file or directory in the archive.
+     */
+    public static class Entry
+    {
+        private final String name;
+
+        private long size;
+
+        private long time;
+
+        private long crc;
+
+        private String digest;
+
+        private int method;
+
+        private long compressedSize;
+
+        private long offset;
+
+        public Entry(final String name) {
+            assert name != null;
+            this.name = name;
+        }
+
+        /**
+         * The archive entry name; directories end with <tt>/</tt>.
+         */
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(final long size) {
+            this.size = size;
+        }
+
+        /**
+         * Last modified time of the source file.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public void setTime(final long time) {
+            this.time = time;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public void setCrc(final long crc) {
+            this.crc = crc;
+        }
+
+        /**
+         * The SHA-256 (hex) of the entry content, or null for directories and entries from before digests.
+         */
+        public String getDigest() {
+            return digest;
+        }
+
+        public void setDigest(final String digest) {
+            this.digest = digest;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public void setMethod(final int method) {
+            this.method = method;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public void setCompressedSize(final long compressedSize) {
+            this.compressedSize = compressedSize;
+        }
+
+        /**
+         * Offset of the entry data in the archive.
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        public void setOffset(final long offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                "name='" + name + '\'' +
+                ", size=" + size +
+                ", compressedSize=" + compressedSize +
+                '}';
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2026 agent
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.hudsonci.plugins.vault.util;
+
+import java.io.Serializable;
+
+/**
+ * Statistics of a package archive build.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ArchiveSummary
+    implements Serializable
+{
+    private int entries;
+
+    private int reused;
+
+    private int deflated;
+
+    private long deflatedBytes;
+
+    private long deflatedSize;
+
+    private long deflateTime;
+
+    private int stored;
+
+    private long storedBytes;
+
+    private long storedEstimate;
+
+    private long duration;
+
+    void entry() {
+        entries++;
+    }
+
+    void reused() {
+        reused++;
+    }
+
+    void deflated(final long bytes, final long size, final long nanos) {
+        deflated++;
+        deflatedBytes += bytes;
+        deflatedSize += size;
+        deflateTime += nanos;
+    }
+
+    void stored(final long bytes, final long estimate) {
+        stored++;
+        storedBytes += bytes;
+        storedEstimate += estimate;
+    }
+
+    void setDuration(final long millis) {
+        this.duration = millis;
+    }
+
+    public int getEntries() {
+        return entries;
+    }
+
+    /**
+     * Entries copied from the previous archive.
+     */
+    public int getReused() {
+        return reused;
+    }
+
+    public int getDeflated() {
+        return deflated;
+    }
+
+    public long getDeflatedBytes() {
+        return deflatedBytes;
+    }
+
+    public long getDeflatedSize() {
+        return deflatedSize;
+    }
+
+    public int getStored() {
+        return stored;
+    }
+
+    /**
+     * Bytes which were stored as-is; none of which had to be deflated here or inflated on nodes.
+     */
+    public long getStoredBytes() {
+        return storedBytes;
+    }
+
+    /**
+     * Estimated milliseconds saved by storing instead of deflating, based on the deflate rate of this build.
+     */
+    public long getTimeSaved() {
+        if (deflatedBytes == 0) {
+            return 0;
+        }
+        return (long) (storedBytes * ((double) deflateTime / deflatedBytes) / 1000000);
+    }
+
+    /**
+     * Estimated bytes deflating the stored entries would have saved; what storing them cost in archive size.  The
+     * deflated size is estimated from the entropy of the bytes read while storing them.
+     */
+    public long getBytesSaved() {
+        return Math.max(0, storedBytes - storedEstimate);
+    }
+
+    /**
+     * Milliseconds the build took.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d entries in %d ms; %d reused, %d deflated (%d -> %d bytes), " +
+            "%d stored (%d bytes not compressed, ~%d ms saved, ~%d bytes larger than deflated)",
+            entries, duration, reused, deflated, deflatedBytes, deflatedSize, stored, storedBytes, getTimeSaved(),
+            getBytesSaved());
+    }
+}
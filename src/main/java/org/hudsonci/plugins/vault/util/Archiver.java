@@ -24,13 +24,45 @@
 
 package org.hudsonci.plugins.vault.util;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
 
+import org.apache.tools.ant.DirectoryScanner;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.taskdefs.Mkdir;
-import org.apache.tools.ant.taskdefs.Zip;
-import org.apache.tools.ant.types.ZipFileSet;
+import org.apache.tools.ant.types.FileSet;
+import org.hudsonci.plugins.vault.CompressionPolicy;
 import org.hudsonci.plugins.vault.Package;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,14 +70,32 @@ import org.slf4j.LoggerFactory;
 /**
  * Helper to build the package cache zip archive.
  *
+ * Files are compressed concurrently on a bounded pool shared by all builds, and written to the archive in order.
+ *
  * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
  */
 public class Archiver
 {
     private static final Logger log = LoggerFactory.getLogger(Archiver.class);
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Files larger than this are compressed to a temporary file instead of memory. */
+    private static final long MEMORY_THRESHOLD = 8 * 1024 * 1024;
+
+    /** Limit of uncompressed bytes being held in memory, waiting to be written, per build. */
+    private static final long MAX_PENDING_BYTES = 64 * 1024 * 1024;
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+
     private transient Project ant;
 
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private ExecutorService executor;
+
     private Project getAnt() {
         if (ant == null) {
             ant = new org.apache.tools.ant.Project();
@@ -54,29 +104,693 @@ public class Archiver
         return ant;
     }
 
-    public File archive(final Package pkg, final File archive, final File source) throws IOException {
-        assert pkg != null;
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Set the number of threads used to compress files; 1 compresses on the calling thread.
+     */
+    public synchronized void setThreads(final int threads) {
+        assert threads > 0;
+        if (threads != this.threads) {
+            this.threads = threads;
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+        }
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+            {
+                private final AtomicInteger counter = new AtomicInteger();
+
+                public Thread newThread(final Runnable task) {
+                    Thread thread = new Thread(task, "vault-archiver-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        return executor;
+    }
+
+    public ArchiveManifest archive(final Package pkg, final File archive, final File source) throws IOException {
+        return archive(pkg, archive, source, null, null);
+    }
+
+    /**
+     * Build the archive, copying the compressed data of files which have not changed since the previous archive.
+     *
+     * @param previous          The manifest of the previous archive, or null to compress everything.
+     * @param previousArchive   The content of the previous archive; required when <tt>previous</tt> is given.
+     */
+    public ArchiveManifest archive(final Package pkg, final File archive, final File source,
+                                   final ArchiveManifest previous, final InputStream previousArchive)
+        throws IOException
+    {
+        return archive(pkg, archive, source, previous, previousArchive, null);
+    }
+
+    /**
+     * Build the archive, as above, reporting progress and stopping when the calling thread is interrupted.
+     *
+     * @param progress  Incremented by the number of bytes written to the archive; may be null.
+     */
+    public ArchiveManifest archive(final Package pkg, final File archive, final File source,
+                                   final ArchiveManifest previous, final InputStream previousArchive,
+                                   final AtomicLong progress)
+        throws IOException
+    {
+        assert archive != null;
 
         Mkdir mkdir = new Mkdir();
         mkdir.setProject(getAnt());
         mkdir.setDir(archive.getParentFile());
         mkdir.execute();
 
-        Zip zip = new Zip();
-        zip.setProject(getAnt());
-        zip.setDestFile(archive);
-        zip.setUpdate(false);
-        zip.setDefaultexcludes(true);
-        zip.setFollowSymlinks(true);
+        OutputStream output = new FileOutputStream(archive);
+        try {
+            return archive(pkg, output, source, previous, previousArchive, progress);
+        }
+        finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Build the archive, as above, writing it to the given stream; which is flushed, not closed.
+     */
+    public ArchiveManifest archive(final Package pkg, final OutputStream archive, final File source,
+                                   ArchiveManifest previous, final InputStream previousArchive,
+                                   final AtomicLong progress)
+        throws IOException
+    {
+        assert pkg != null;
+        assert archive != null;
+        assert source != null;
+
+        CompressionPolicy policy = pkg.getCompression();
+
+        if (previous != null && !previous.getSource().equals(source.getAbsolutePath())) {
+            log.debug("Package source changed; not reusing previous archive");
+            previous = null;
+        }
+        if (previous != null && !policy.toString().equals(previous.getPolicy())) {
+            log.debug("Package compression policy changed; not reusing previous archive");
+            previous = null;
+        }
+        if (previous != null && previous.getArchiveDigest() == null) {
+            log.debug("Previous archive has no digests; not reusing previous archive");
+            previous = null;
+        }
+
+        OutputStream output = archive;
+        if (progress != null) {
+            output = new ProgressOutputStream(output, progress);
+        }
+        MessageDigest sha = newDigest();
+        output = new DigestOutputStream(output, sha);
+        Build build = new Build(source, policy, new ZipWriter(output), previous, previousArchive);
+        boolean finished = false;
+        try {
+            for (String name : scan(pkg, source)) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Archive interrupted: " + source);
+                }
+                build.add(name);
+            }
+            ArchiveManifest manifest = build.finish();
+            manifest.setArchiveDigest(toHex(sha.digest()));
+            finished = true;
+            return manifest;
+        }
+        finally {
+            if (!finished) {
+                build.abort();
+            }
+        }
+    }
+
+    /**
+     * Write an archive holding only the named entries of the given archive, copying their compressed data.
+     *
+     * @param manifest  The manifest of the given archive.
+     * @param archive   The content of the archive described by the manifest.
+     * @param names     The entries to include; directories are always included.
+     *
+     * @throws ArchiveMismatchException  The archive is not the one described by the manifest.
+     */
+    public void extract(final ArchiveManifest manifest, final InputStream archive, final Set<String> names,
+                        final OutputStream output)
+        throws IOException
+    {
+        assert manifest != null;
+        assert archive != null;
+        assert names != null;
+        assert output != null;
+
+        DataInputStream input = new DataInputStream(new BufferedInputStream(archive, BUFFER_SIZE));
+        ZipWriter writer = new ZipWriter(output);
+        long position = 0;
+
+        for (ArchiveManifest.Entry entry : manifest.getEntries()) {
+            if (entry.isDirectory()) {
+                writer.putDirectory(entry.getName(), entry.getTime());
+                continue;
+            }
+            if (!names.contains(entry.getName())) {
+                continue;
+            }
 
-        ZipFileSet files = new ZipFileSet();
+            byte[] name = entry.getName().getBytes("UTF-8");
+            long start = entry.getOffset() - LOCAL_HEADER_SIZE - name.length
+                - ZipWriter.getLocalExtraSize(entry.getSize(), entry.getCompressedSize());
+            if (start < position || !skipToEntryData(input, start - position, entry, name)) {
+                throw new ArchiveMismatchException("Archive does not match its manifest at: " + entry.getName());
+            }
+
+            writer.putEntry(entry.getName(), entry.getTime(), entry.getMethod(), entry.getCrc(), entry.getSize(),
+                entry.getCompressedSize(), input);
+            position = entry.getOffset() + entry.getCompressedSize();
+        }
+
+        writer.finish();
+    }
+
+    /**
+     * Returns the sorted archive entry names for the package; directories end with <tt>/</tt>.
+     */
+    private Set<String> scan(final Package pkg, final File source) {
+        FileSet files = new FileSet();
+        files.setProject(getAnt());
         files.setDir(source);
         files.setIncludes(pkg.getIncludes());
         files.setExcludes(pkg.getExcludes());
-        zip.addZipfileset(files);
+        files.setDefaultexcludes(true);
+        files.setFollowSymlinks(true);
+
+        DirectoryScanner scanner = files.getDirectoryScanner(getAnt());
+        Set<String> names = new TreeSet<String>();
+
+        for (String dir : scanner.getIncludedDirectories()) {
+            if (dir.length() != 0) {
+                addWithParents(names, dir.replace(File.separatorChar, '/') + "/");
+            }
+        }
+        for (String file : scanner.getIncludedFiles()) {
+            addWithParents(names, file.replace(File.separatorChar, '/'));
+        }
+
+        return names;
+    }
+
+    private void addWithParents(final Set<String> names, final String name) {
+        names.add(name);
+
+        // Same as the zip task, include parent directories of everything
+        int i = name.lastIndexOf('/', name.length() - 2);
+        while (i > 0) {
+            names.add(name.substring(0, i + 1));
+            i = name.lastIndexOf('/', i - 1);
+        }
+    }
+
+    /**
+     * State of a single archive build.
+     *
+     * Entries are queued in archive order; compression runs ahead on the pool while the head of the queue is written.
+     */
+    private class Build
+    {
+        private final File source;
+
+        private final CompressionPolicy policy;
+
+        private final ZipWriter writer;
+
+        private final ArchiveManifest previous;
+
+        private final DataInputStream input;
+
+        private final ArchiveManifest manifest;
+
+        private final ArchiveSummary summary = new ArchiveSummary();
+
+        private final long started = System.currentTimeMillis();
+
+        private final LinkedList<Pending> queue = new LinkedList<Pending>();
+
+        private long pendingBytes;
+
+        /** Position in the previous archive. */
+        private long position;
+
+        private boolean reuse;
+
+        private Build(final File source, final CompressionPolicy policy, final ZipWriter writer,
+                      final ArchiveManifest previous, final InputStream previousArchive)
+        {
+            this.source = source;
+            this.policy = policy;
+            this.writer = writer;
+            this.previous = previous;
+            this.reuse = previous != null;
+            this.input = reuse ? new DataInputStream(new BufferedInputStream(previousArchive, BUFFER_SIZE)) : null;
+            this.manifest = new ArchiveManifest(source.getAbsolutePath());
+            manifest.setPolicy(policy.toString());
+            manifest.setSummary(summary);
+        }
+
+        public void add(final String name) throws IOException {
+            File file = new File(source, name);
+            ArchiveManifest.Entry entry = new ArchiveManifest.Entry(name);
+            entry.setTime(file.lastModified());
+            Pending pending = new Pending(file, entry);
+
+            if (!entry.isDirectory()) {
+                entry.setSize(file.length());
+
+                ArchiveManifest.Entry old = reuse ? previous.getEntry(name) : null;
+                if (old != null && old.getSize() == entry.getSize() && old.getTime() == entry.getTime()) {
+                    pending.old = old;
+                }
+                else {
+                    // Make room before queuing more work
+                    while (!queue.isEmpty() && (queue.size() >= threads * 2 || pendingBytes >= MAX_PENDING_BYTES)) {
+                        write(queue.removeFirst());
+                    }
+                    pending.compress();
+                }
+            }
+
+            queue.addLast(pending);
+        }
+
+        public ArchiveManifest finish() throws IOException {
+            while (!queue.isEmpty()) {
+                write(queue.removeFirst());
+            }
+            writer.finish();
+
+            summary.setDuration(System.currentTimeMillis() - started);
+            log.debug("Archived: {}", summary);
+
+            return manifest;
+        }
+
+        /**
+         * Discard any queued work.
+         */
+        public void abort() {
+            for (Pending pending : queue) {
+                if (pending.future != null && !pending.future.cancel(true)) {
+                    try {
+                        pending.future.get().dispose();
+                    }
+                    catch (Exception e) {
+                        log.trace("Ignoring failure of aborted entry: {}", pending.file, e);
+                    }
+                }
+            }
+            queue.clear();
+        }
 
-        zip.execute();
+        private void write(final Pending pending) throws IOException {
+            ArchiveManifest.Entry entry = pending.entry;
 
-        return archive;
+            if (entry.isDirectory()) {
+                writer.putDirectory(entry.getName(), entry.getTime());
+            }
+            else if (pending.old != null && reuse && copy(entry, pending.old)) {
+                summary.reused();
+            }
+            else {
+                Compressed data = pending.old != null ? compress(pending.file, policy) : pending.get();
+                try {
+                    entry.setSize(data.size);
+                    entry.setCrc(data.crc);
+                    entry.setDigest(data.digest);
+                    entry.setMethod(data.method);
+                    entry.setCompressedSize(data.compressedSize);
+
+                    CheckedInputStream stream = new CheckedInputStream(data.open(), new CRC32());
+                    try {
+                        entry.setOffset(writer.putEntry(entry.getName(), entry.getTime(), entry.getMethod(),
+                            entry.getCrc(), entry.getSize(), entry.getCompressedSize(), stream));
+                    }
+                    finally {
+                        stream.close();
+                    }
+
+                    // Stored files are copied from the source, make sure it has not changed since it was checked
+                    if (data.method == ZipEntry.STORED && stream.getChecksum().getValue() != data.crc) {
+                        throw new IOException("File changed while archiving: " + pending.file);
+                    }
+                }
+                finally {
+                    data.dispose();
+                }
+
+                if (data.method == ZipEntry.STORED) {
+                    summary.stored(data.size, data.estimatedSize);
+                }
+                else {
+                    summary.deflated(data.size, data.compressedSize, data.nanos);
+                }
+            }
+
+            summary.entry();
+            manifest.add(entry);
+        }
+
+        /**
+         * Copy the compressed data of an unchanged entry from the previous archive.
+         */
+        private boolean copy(final ArchiveManifest.Entry entry, final ArchiveManifest.Entry old) throws IOException {
+            byte[] name = entry.getName().getBytes("UTF-8");
+            long start = old.getOffset() - LOCAL_HEADER_SIZE - name.length
+                - ZipWriter.getLocalExtraSize(old.getSize(), old.getCompressedSize());
+
+            if (start < position || !skipToEntryData(input, start - position, old, name)) {
+                log.warn("Previous archive does not match its manifest at: {}; compressing remaining files", entry.getName());
+                reuse = false;
+                return false;
+            }
+
+            entry.setCrc(old.getCrc());
+            entry.setDigest(old.getDigest());
+            entry.setMethod(old.getMethod());
+            entry.setCompressedSize(old.getCompressedSize());
+            entry.setOffset(writer.putEntry(entry.getName(), entry.getTime(), old.getMethod(), old.getCrc(),
+                old.getSize(), old.getCompressedSize(), input));
+
+            position = old.getOffset() + old.getCompressedSize();
+            return true;
+        }
+
+        /**
+         * An entry waiting to be written.
+         */
+        private class Pending
+        {
+            private final File file;
+
+            private final ArchiveManifest.Entry entry;
+
+            private ArchiveManifest.Entry old;
+
+            private Future<Compressed> future;
+
+            private long memory;
+
+            private Pending(final File file, final ArchiveManifest.Entry entry) {
+                this.file = file;
+                this.entry = entry;
+            }
+
+            private void compress() {
+                if (entry.getSize() <= MEMORY_THRESHOLD) {
+                    memory = entry.getSize();
+                    pendingBytes += memory;
+                }
+
+                if (threads <= 1) {
+                    return;
+                }
+
+                future = getExecutor().submit(new Callable<Compressed>()
+                {
+                    public Compressed call() throws Exception {
+                        return Archiver.this.compress(file, policy);
+                    }
+                });
+            }
+
+            private Compressed get() throws IOException {
+                pendingBytes -= memory;
+
+                if (future == null) {
+                    return Archiver.this.compress(file, policy);
+                }
+
+                try {
+                    return future.get();
+                }
+                catch (InterruptedException e) {
+                    future.cancel(true);
+                    throw (IOException) new InterruptedIOException().initCause(e);
+                }
+                catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw (IOException) new IOException("Failed to compress: " + file).initCause(cause);
+                }
+            }
+        }
+    }
+
+    /**
+     * Skip to the data of the given entry, verifying its local header matches.
+     */
+    private boolean skipToEntryData(final DataInputStream input, final long skip, final ArchiveManifest.Entry entry,
+                                    final byte[] name)
+        throws IOException
+    {
+        skipFully(input, skip);
+
+        byte[] header = new byte[LOCAL_HEADER_SIZE + name.length
+            + ZipWriter.getLocalExtraSize(entry.getSize(), entry.getCompressedSize())];
+        input.readFully(header);
+
+        // ZIP64 entries hold their sizes in the extra field, marking the header fields with 0xFFFFFFFF
+        if (readInt(header, 0) != LOCAL_HEADER
+            || (readInt(header, 14) & 0xFFFFFFFFL) != entry.getCrc()
+            || (readInt(header, 18) & 0xFFFFFFFFL) != Math.min(entry.getCompressedSize(), 0xFFFFFFFFL)) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (header[LOCAL_HEADER_SIZE + i] != name[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int readInt(final byte[] bytes, final int off) {
+        return (bytes[off] & 0xFF)
+            | (bytes[off + 1] & 0xFF) << 8
+            | (bytes[off + 2] & 0xFF) << 16
+            | (bytes[off + 3] & 0xFF) << 24;
+    }
+
+    private static void skipFully(final InputStream input, long count) throws IOException {
+        while (count > 0) {
+            long n = input.skip(count);
+            if (n <= 0) {
+                if (input.read() == -1) {
+                    throw new IOException("Unexpected end of previous archive");
+                }
+                n = 1;
+            }
+            count -= n;
+        }
+    }
+
+    /**
+     * Compress the given file as the policy selects; small results are kept in memory, larger deflated results are
+     * spooled to a temporary file, and larger stored files are read again from the source when written.
+     */
+    private Compressed compress(final File file, final CompressionPolicy policy) throws IOException {
+        Compressed data = new Compressed();
+        long started = System.nanoTime();
+        int level = policy.selectLevel(file);
+        long length = file.length();
+
+        if (level == CompressionPolicy.STORE) {
+            data.method = ZipEntry.STORED;
+            ByteArrayOutputStream memory = length <= MEMORY_THRESHOLD ? new ByteArrayOutputStream((int) length) : null;
+            CRC32 crc = new CRC32();
+            MessageDigest sha = newDigest();
+            long[] counts = new long[256];
+            InputStream input = new FileInputStream(file);
+            try {
+                byte[] buff = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = input.read(buff)) != -1) {
+                    crc.update(buff, 0, n);
+                    sha.update(buff, 0, n);
+                    for (int i = 0; i < n; i++) {
+                        counts[buff[i] & 0xFF]++;
+                    }
+                    if (memory != null) {
+                        memory.write(buff, 0, n);
+                    }
+                    data.size += n;
+                }
+            }
+            finally {
+                input.close();
+            }
+
+            data.crc = crc.getValue();
+            data.digest = toHex(sha.digest());
+            data.compressedSize = data.size;
+            // What deflating would have produced, at best; entropy is a fair estimate for data worth storing
+            data.estimatedSize = (long) (data.size * CompressionPolicy.entropy(counts, data.size) / 8);
+            if (memory != null) {
+                data.bytes = memory.toByteArray();
+            }
+            else {
+                data.file = file;
+            }
+            data.nanos = System.nanoTime() - started;
+
+            return data;
+        }
+
+        data.method = ZipEntry.DEFLATED;
+        OutputStream buffer;
+        ByteArrayOutputStream memory = null;
+        if (length <= MEMORY_THRESHOLD) {
+            buffer = memory = new ByteArrayOutputStream((int) length / 2 + 64);
+        }
+        else {
+            data.file = File.createTempFile("entry", ".deflated");
+            data.temporary = true;
+            buffer = new FileOutputStream(data.file);
+        }
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            CRC32 crc = new CRC32();
+            MessageDigest sha = newDigest();
+            DeflaterOutputStream output = new DeflaterOutputStream(buffer, deflater, BUFFER_SIZE);
+            InputStream input = new FileInputStream(file);
+            try {
+                byte[] buff = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = input.read(buff)) != -1) {
+                    crc.update(buff, 0, n);
+                    sha.update(buff, 0, n);
+                    output.write(buff, 0, n);
+                    data.size += n;
+                }
+                output.finish();
+            }
+            finally {
+                input.close();
+                buffer.close();
+            }
+
+            data.crc = crc.getValue();
+            data.digest = toHex(sha.digest());
+            data.compressedSize = deflater.getBytesWritten();
+            if (memory != null) {
+                data.bytes = memory.toByteArray();
+            }
+        }
+        catch (IOException e) {
+            data.dispose();
+            throw e;
+        }
+        finally {
+            deflater.end();
+        }
+        data.nanos = System.nanoTime() - started;
+
+        return data;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new Error(e);
+        }
+    }
+
+    private static String toHex(final byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Counts the bytes written to the archive.
+     */
+    private static class ProgressOutputStream
+        extends FilterOutputStream
+    {
+        private final AtomicLong progress;
+
+        private ProgressOutputStream(final OutputStream output, final AtomicLong progress) {
+            super(output);
+            this.progress = progress;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            progress.incrementAndGet();
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            progress.addAndGet(len);
+        }
+    }
+
+    /**
+     * Compressed content of a file.
+     */
+    private static class Compressed
+    {
+        private int method;
+
+        /** Actual bytes read; the file may have changed since it was scanned. */
+        private long size;
+
+        private long crc;
+
+        /** SHA-256 (hex) of the content read. */
+        private String digest;
+
+        private long compressedSize;
+
+        /** Estimated deflated size of stored content. */
+        private long estimatedSize;
+
+        private byte[] bytes;
+
+        private File file;
+
+        private boolean temporary;
+
+        private long nanos;
+
+        private InputStream open() throws IOException {
+            return bytes != null ? new ByteArrayInputStream(bytes) : new FileInputStream(file);
+        }
+
+        private void dispose() {
+            bytes = null;
+            if (temporary && !file.delete()) {
+                log.warn("Failed to remove temporary file: {}", file);
+            }
+        }
     }
-}
\ No newline at end of file
+}
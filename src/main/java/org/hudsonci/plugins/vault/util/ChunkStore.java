@@ -0,0 +1,764 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2026 agent
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.hudsonci.plugins.vault.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.SequenceInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Content-addressed store of variable sized chunks.
+ *
+ * Streams are split at content-defined boundaries (gear rolling hash), so the same bytes produce the same chunks
+ * regardless of where they appear.  Each chunk is stored once, named by its SHA-1, and reference counted by the
+ * {@link Recipe}s which use it.
+ *
+ * Chunks of streams which are {@link #open open} are not removed until the stream is closed, so a recipe can be
+ * released while it is still being read.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ChunkStore
+{
+    private static final Logger log = LoggerFactory.getLogger(ChunkStore.class);
+
+    private static final int MIN_CHUNK_SIZE = 16 * 1024;
+
+    private static final int MAX_CHUNK_SIZE = 256 * 1024;
+
+    /** 16 bits of hash must be zero, giving an average chunk size of ~64k. */
+    private static final long BOUNDARY_MASK = 0xFFFFL << 48;
+
+    private static final String INDEX_FILE = "index";
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // Fixed seed; chunk boundaries must be stable across restarts
+        Random random = new Random(0x5641554C54L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final File dir;
+
+    private Map<String,Chunk> index;
+
+    /** Total size of the indexed chunks; kept as chunks are indexed and removed. */
+    private long size;
+
+    /** Guards {@link #pins} and {@link #unreferenced}; may be taken while holding the store lock, not the reverse. */
+    private final Object pinLock = new Object();
+
+    /** Number of open streams using each chunk. */
+    private final Map<String,Integer> pins = new HashMap<String,Integer>();
+
+    /** Released chunks whose removal waits for their streams to be closed. */
+    private final Set<String> unreferenced = new HashSet<String>();
+
+    public ChunkStore(final File dir) {
+        assert dir != null;
+        this.dir = dir;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * Split the given stream into chunks, adding any which are not already present.
+     */
+    public Recipe store(final InputStream source) throws IOException {
+        assert source != null;
+
+        Writer writer = writer();
+        boolean stored = false;
+        try {
+            byte[] buff = new byte[64 * 1024];
+            int n;
+            while ((n = source.read(buff)) != -1) {
+                writer.write(buff, 0, n);
+            }
+            Recipe recipe = writer.finish();
+            stored = true;
+            return recipe;
+        }
+        finally {
+            if (!stored) {
+                writer.abort();
+            }
+        }
+    }
+
+    /**
+     * Open a stream which splits what is written to it into chunks, as {@link #store} does.  Chunks are added as
+     * they are cut; {@link Writer#finish} returns the recipe, or {@link Writer#abort} releases them again.
+     */
+    public Writer writer() {
+        return new Writer();
+    }
+
+    /**
+     * Add the chunk held by the buffer, unless already present, and reference it.
+     *
+     * The chunk is digested and written outside the store lock, which is only held to look it up and index it.
+     */
+    private Chunk add(final byte[] buff, final int size) throws IOException {
+        String id = digest(buff, size);
+
+        Chunk chunk = reference(id, size, null);
+        if (chunk != null) {
+            return chunk;
+        }
+
+        File tmp = writeChunk(id, buff, size);
+        try {
+            return reference(id, size, tmp);
+        }
+        finally {
+            if (tmp.exists() && !tmp.delete()) {
+                log.warn("Failed to remove temporary chunk: {}", tmp);
+            }
+        }
+    }
+
+    /**
+     * Reference the chunk if it is present, or index it from the given file if any.
+     *
+     * @param tmp   The written chunk, moved into place if the chunk is not present; or null.
+     * @return      The chunk, or null if not present and no file was given.
+     */
+    private synchronized Chunk reference(final String id, final int size, final File tmp) throws IOException {
+        Map<String,Chunk> index = getIndex();
+        Chunk chunk = index.get(id);
+        if (chunk == null) {
+            boolean kept;
+            synchronized (pinLock) {
+                // Released but still being read; the file is still there, and now referenced again
+                kept = unreferenced.remove(id);
+            }
+            if (!kept) {
+                if (tmp == null) {
+                    return null;
+                }
+                File file = getChunkFile(id);
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Failed to store chunk: " + file);
+                }
+            }
+            chunk = new Chunk(id, size);
+            index.put(id, chunk);
+            this.size += size;
+        }
+        chunk.refs++;
+        return chunk;
+    }
+
+    private synchronized Recipe added(final List<Chunk> chunks) throws IOException {
+        getIndex();
+        saveIndex();
+        return new Recipe(chunks);
+    }
+
+    /**
+     * Release the chunks used by the given recipe, removing those which are no longer referenced.
+     */
+    public synchronized void release(final Recipe recipe) throws IOException {
+        assert recipe != null;
+
+        Map<String,Chunk> index = getIndex();
+        int removed = 0;
+
+        for (Chunk ref : recipe.getChunks()) {
+            Chunk chunk = index.get(ref.id);
+            if (chunk == null) {
+                log.warn("Releasing unknown chunk: {}", ref.id);
+                continue;
+            }
+
+            if (--chunk.refs <= 0) {
+                index.remove(chunk.id);
+                size -= chunk.size;
+                synchronized (pinLock) {
+                    if (pins.containsKey(chunk.id)) {
+                        unreferenced.add(chunk.id);
+                    }
+                    else {
+                        deleteChunk(chunk.id);
+                    }
+                }
+                removed++;
+            }
+        }
+
+        saveIndex();
+
+        log.debug("Released {} chunks ({} removed)", recipe.getChunks().size(), removed);
+    }
+
+    /**
+     * Open a stream which reassembles the content of the given recipe.  The stream must be closed.
+     */
+    public InputStream open(final Recipe recipe) throws IOException {
+        assert recipe != null;
+
+        final List<Chunk> chunks = recipe.getChunks();
+        pin(chunks);
+
+        final Iterator<Chunk> iter = chunks.iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>()
+        {
+            public boolean hasMoreElements() {
+                return iter.hasNext();
+            }
+
+            public InputStream nextElement() {
+                File file = getChunkFile(iter.next().id);
+                try {
+                    return new FileInputStream(file);
+                }
+                catch (FileNotFoundException e) {
+                    throw (NoSuchElementException) new NoSuchElementException(file.getAbsolutePath()).initCause(e);
+                }
+            }
+        })
+        {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                }
+                finally {
+                    if (!closed) {
+                        closed = true;
+                        unpin(chunks);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Keep the chunks of the given recipe, which must all be present, until {@link #unpin unpinned}; for reading
+     * them other than through {@link #open}.
+     */
+    public void pin(final Recipe recipe) throws IOException {
+        assert recipe != null;
+        pin(recipe.getChunks());
+    }
+
+    public void unpin(final Recipe recipe) {
+        assert recipe != null;
+        unpin(recipe.getChunks());
+    }
+
+    private void pin(final List<Chunk> chunks) throws IOException {
+        synchronized (pinLock) {
+            // Make sure all chunks are there before they are read
+            for (Chunk chunk : chunks) {
+                File file = getChunkFile(chunk.id);
+                if (!file.exists()) {
+                    throw new FileNotFoundException(file.getAbsolutePath());
+                }
+            }
+            for (Chunk chunk : chunks) {
+                Integer count = pins.get(chunk.id);
+                pins.put(chunk.id, count != null ? count + 1 : 1);
+            }
+        }
+    }
+
+    private void unpin(final List<Chunk> chunks) {
+        synchronized (pinLock) {
+            for (Chunk chunk : chunks) {
+                Integer count = pins.get(chunk.id);
+                if (count == null) {
+                    continue;
+                }
+                if (count > 1) {
+                    pins.put(chunk.id, count - 1);
+                }
+                else {
+                    pins.remove(chunk.id);
+                    if (unreferenced.remove(chunk.id)) {
+                        deleteChunk(chunk.id);
+                    }
+                }
+            }
+        }
+    }
+
+    private void deleteChunk(final String id) {
+        File file = getChunkFile(id);
+        if (!file.delete() && file.exists()) {
+            log.error("Failed to remove chunk: {}", file);
+        }
+    }
+
+    /**
+     * Make the store hold exactly the chunks of the given recipes; reference counts are recomputed, and chunks which
+     * no recipe uses, or which were left behind without being indexed, are removed.
+     *
+     * The given recipes must be all which use the store, and none may be stored or released meanwhile.
+     */
+    public synchronized void sweep(final Collection<Recipe> recipes) throws IOException {
+        assert recipes != null;
+
+        Map<String,Integer> refs = new HashMap<String,Integer>();
+        for (Recipe recipe : recipes) {
+            for (Chunk chunk : recipe.getChunks()) {
+                Integer count = refs.get(chunk.id);
+                refs.put(chunk.id, count != null ? count + 1 : 1);
+            }
+        }
+
+        Map<String,Chunk> index = getIndex();
+        int removed = 0;
+
+        for (Iterator<Chunk> iter = index.values().iterator(); iter.hasNext();) {
+            Chunk chunk = iter.next();
+            Integer count = refs.get(chunk.id);
+            if (count != null) {
+                chunk.refs = count;
+                continue;
+            }
+
+            iter.remove();
+            size -= chunk.size;
+            synchronized (pinLock) {
+                if (pins.containsKey(chunk.id)) {
+                    unreferenced.add(chunk.id);
+                }
+                else {
+                    deleteChunk(chunk.id);
+                }
+            }
+            removed++;
+        }
+
+        for (String id : refs.keySet()) {
+            if (!index.containsKey(id)) {
+                log.warn("Missing chunk: {}", id);
+            }
+        }
+
+        // Files of chunks which were written but never indexed, and of interrupted writes
+        File[] parents = dir.listFiles();
+        if (parents != null) {
+            for (File parent : parents) {
+                File[] files = parent.isDirectory() ? parent.listFiles() : null;
+                if (files == null) {
+                    continue;
+                }
+                for (File file : files) {
+                    String id = parent.getName() + file.getName();
+                    if (index.containsKey(id)) {
+                        continue;
+                    }
+                    synchronized (pinLock) {
+                        if (unreferenced.contains(id)) {
+                            continue;
+                        }
+                    }
+                    if (!file.delete()) {
+                        log.error("Failed to remove chunk: {}", file);
+                    }
+                    removed++;
+                }
+            }
+        }
+
+        saveIndex();
+
+        log.debug("Swept chunks; {} kept, {} removed", index.size(), removed);
+    }
+
+    /**
+     * Returns the total number of bytes used by unique chunks.
+     */
+    public synchronized long getSize() throws IOException {
+        getIndex();
+        return size;
+    }
+
+    private String digest(final byte[] buff, final int size) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new Error(e);
+        }
+        md.update(buff, 0, size);
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : md.digest()) {
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+        return hex.toString();
+    }
+
+    private File getChunkFile(final String id) {
+        return new File(new File(dir, id.substring(0, 2)), id.substring(2));
+    }
+
+    /**
+     * Write the chunk to a temporary file next to where it is stored; others may be writing the same chunk.
+     */
+    private File writeChunk(final String id, final byte[] buff, final int size) throws IOException {
+        File parent = getChunkFile(id).getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Failed to create directory: " + parent);
+        }
+
+        File tmp = File.createTempFile(id.substring(2) + "-", ".tmp", parent);
+        boolean written = false;
+        try {
+            OutputStream output = new FileOutputStream(tmp);
+            try {
+                output.write(buff, 0, size);
+            }
+            finally {
+                output.close();
+            }
+            written = true;
+        }
+        finally {
+            if (!written) {
+                tmp.delete();
+            }
+        }
+        return tmp;
+    }
+
+    private Map<String,Chunk> getIndex() throws IOException {
+        if (index == null) {
+            index = new HashMap<String,Chunk>();
+
+            File file = new File(dir, INDEX_FILE);
+            if (file.exists()) {
+                BufferedReader reader = new BufferedReader(new FileReader(file));
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String[] items = line.split(" ");
+                        Chunk chunk = new Chunk(items[0], Integer.parseInt(items[1]));
+                        chunk.refs = Integer.parseInt(items[2]);
+                        index.put(chunk.id, chunk);
+                        size += chunk.size;
+                    }
+                }
+                finally {
+                    reader.close();
+                }
+            }
+
+            log.debug("Loaded chunk index; {} chunks", index.size());
+        }
+        return index;
+    }
+
+    private void saveIndex() throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create directory: " + dir);
+        }
+
+        File file = new File(dir, INDEX_FILE);
+        File tmp = new File(dir, INDEX_FILE + ".tmp");
+        PrintWriter writer = new PrintWriter(new FileOutputStream(tmp));
+        try {
+            for (Chunk chunk : index.values()) {
+                writer.append(chunk.id).append(' ')
+                    .append(String.valueOf(chunk.size)).append(' ')
+                    .append(String.valueOf(chunk.refs)).append('\n');
+            }
+        }
+        finally {
+            writer.close();
+        }
+
+        // Windows will not rename over an existing file
+        if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+            throw new IOException("Failed to save chunk index: " + file);
+        }
+    }
+
+    /**
+     * Splits written bytes at content-defined boundaries (gear rolling hash), storing each chunk as it is cut.
+     */
+    public class Writer
+        extends OutputStream
+    {
+        private final byte[] buff = new byte[MAX_CHUNK_SIZE];
+
+        private int size;
+
+        private long hash;
+
+        private final List<Chunk> chunks = new ArrayList<Chunk>();
+
+        private boolean done;
+
+        private Writer() {
+            // via writer()
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            ensureOpen();
+            buff[size++] = (byte) b;
+            hash = (hash << 1) + GEAR[b & 0xFF];
+            if (size >= MAX_CHUNK_SIZE || (size >= MIN_CHUNK_SIZE && (hash & BOUNDARY_MASK) == 0)) {
+                cut();
+            }
+        }
+
+        @Override
+        public void write(final byte[] b, int off, final int len) throws IOException {
+            ensureOpen();
+            final int end = off + len;
+            while (off < end) {
+                // Copy up to the next boundary, or the end of the input, then hash over the copied range
+                int n = Math.min(end - off, MAX_CHUNK_SIZE - size);
+                int from = size;
+                System.arraycopy(b, off, buff, from, n);
+                int to = from + n;
+                int i = from;
+                long h = hash;
+                boolean boundary = false;
+                while (i < to) {
+                    h = (h << 1) + GEAR[buff[i++] & 0xFF];
+                    if (i >= MIN_CHUNK_SIZE && (h & BOUNDARY_MASK) == 0) {
+                        boundary = true;
+                        break;
+                    }
+                }
+                off += i - from;
+                size = i;
+                hash = h;
+                if (boundary || size >= MAX_CHUNK_SIZE) {
+                    cut();
+                }
+            }
+        }
+
+        private void cut() throws IOException {
+            chunks.add(add(buff, size));
+            size = 0;
+            hash = 0;
+        }
+
+        private void ensureOpen() throws IOException {
+            if (done) {
+                throw new IOException("Chunk writer is closed");
+            }
+        }
+
+        /**
+         * Store the final chunk and return the recipe of everything written.
+         */
+        public Recipe finish() throws IOException {
+            ensureOpen();
+            if (size > 0) {
+                cut();
+            }
+            done = true;
+
+            Recipe recipe = added(chunks);
+            log.debug("Stored {} chunks, {} bytes", chunks.size(), recipe.getLength());
+            return recipe;
+        }
+
+        /**
+         * Release the chunks stored so far; does nothing once finished.
+         */
+        public void abort() throws IOException {
+            if (done) {
+                return;
+            }
+            done = true;
+            if (!chunks.isEmpty()) {
+                release(new Recipe(chunks));
+            }
+        }
+
+        /**
+         * Does nothing; the writer is ended by {@link #finish} or {@link #abort}.
+         */
+        @Override
+        public void close() {
+            // empty
+        }
+    }
+
+    /**
+     * A stored chunk.
+     */
+    public static class Chunk
+    {
+        private final String id;
+
+        private final int size;
+
+        private int refs;
+
+        private Chunk(final String id, final int size) {
+            this.id = id;
+            this.size = size;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return id + ":" + size;
+        }
+    }
+
+    /**
+     * The ordered list of chunks which make up a stream.
+     */
+    public static class Recipe
+    {
+        private static final String DIGEST_PREFIX = "#sha256=";
+
+        private final List<Chunk> chunks;
+
+        private String digest;
+
+        private Recipe(final List<Chunk> chunks) {
+            assert chunks != null;
+            this.chunks = Collections.unmodifiableList(chunks);
+        }
+
+        public List<Chunk> getChunks() {
+            return chunks;
+        }
+
+        /**
+         * The SHA-256 (hex) of the reassembled content, or null if not known.
+         */
+        public String getDigest() {
+            return digest;
+        }
+
+        public void setDigest(final String digest) {
+            this.digest = digest;
+        }
+
+        public long getLength() {
+            long length = 0;
+            for (Chunk chunk : chunks) {
+                length += chunk.size;
+            }
+            return length;
+        }
+
+        public void save(final File file) throws IOException {
+            assert file != null;
+
+            PrintWriter writer = new PrintWriter(new FileOutputStream(file));
+            try {
+                if (digest != null) {
+                    writer.append(DIGEST_PREFIX).append(digest).append('\n');
+                }
+                for (Chunk chunk : chunks) {
+                    writer.append(chunk.id).append(' ').append(String.valueOf(chunk.size)).append('\n');
+                }
+            }
+            finally {
+                writer.close();
+            }
+        }
+
+        public static Recipe load(final File file) throws IOException {
+            assert file != null;
+
+            List<Chunk> chunks = new ArrayList<Chunk>();
+            String digest = null;
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith(DIGEST_PREFIX)) {
+                        digest = line.substring(DIGEST_PREFIX.length());
+                        continue;
+                    }
+                    String[] items = line.split(" ");
+                    chunks.add(new Chunk(items[0], Integer.parseInt(items[1])));
+                }
+            }
+            finally {
+                reader.close();
+            }
+
+            Recipe recipe = new Recipe(chunks);
+            recipe.setDigest(digest);
+            return recipe;
+        }
+
+        @Override
+        public String toString() {
+            return "Recipe{" +
+                "chunks=" + chunks.size() +
+                ", length=" + getLength() +
+                '}';
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2026 agent
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.hudsonci.plugins.vault.util;
+
+import java.util.regex.Pattern;
+
+/**
+ * Matches a node context attribute against a package property value.
+ *
+ * Property values are one of:
+ * <ul>
+ * <li><tt>/regex/</tt> - a regular expression, matched case-insensitively against the whole value</li>
+ * <li><tt>[1.6,1.8)</tt> - a version range; either bound may be omitted, and <tt>[1.6]</tt> is an exact version</li>
+ * <li>a glob, when the value contains <tt>*</tt> or <tt>?</tt></li>
+ * <li>otherwise, the exact value ignoring case</li>
+ * </ul>
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public abstract class ValueMatcher
+{
+    public abstract boolean matches(String value);
+
+    public static ValueMatcher compile(final String expression) {
+        if (expression == null) {
+            return new Exact(null);
+        }
+
+        int length = expression.length();
+        if (length > 1 && expression.charAt(0) == '/' && expression.charAt(length - 1) == '/') {
+            return new Regex(expression.substring(1, length - 1));
+        }
+        if (length > 1 && (expression.charAt(0) == '[' || expression.charAt(0) == '(')
+            && (expression.charAt(length - 1) == ']' || expression.charAt(length - 1) == ')')) {
+            return VersionRange.parse(expression);
+        }
+        if (expression.indexOf('*') != -1 || expression.indexOf('?') != -1) {
+            return new Glob(expression);
+        }
+        return new Exact(expression);
+    }
+
+    /**
+     * Compare two versions segment by segment; segments are separated by <tt>.</tt>, <tt>-</tt> or <tt>_</tt>,
+     * numeric segments are compared as numbers, others ignoring case, and missing segments count as zero.
+     */
+    public static int compareVersions(final String a, final String b) {
+        int i = 0, j = 0;
+        while (i < a.length() || j < b.length()) {
+            int aEnd = segmentEnd(a, i);
+            int bEnd = segmentEnd(b, j);
+
+            int result = compareSegments(a, i, aEnd, b, j, bEnd);
+            if (result != 0) {
+                return result;
+            }
+
+            i = aEnd < a.length() ? aEnd + 1 : aEnd;
+            j = bEnd < b.length() ? bEnd + 1 : bEnd;
+        }
+        return 0;
+    }
+
+    private static int segmentEnd(final String s, int i) {
+        while (i < s.length() && !isSeparator(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isSeparator(final char c) {
+        return c == '.' || c == '-' || c == '_';
+    }
+
+    private static boolean isNumeric(final String s, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            if (!Character.isDigit(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int compareSegments(final String a, int aStart, final int aEnd,
+                                       final String b, int bStart, final int bEnd)
+    {
+        boolean aNumeric = isNumeric(a, aStart, aEnd);
+        boolean bNumeric = isNumeric(b, bStart, bEnd);
+
+        if (aNumeric && bNumeric) {
+            // Compare by magnitude without parsing; skip leading zeros, then longer is larger.  A missing segment
+            // is empty, which is numeric and equal to zero
+            while (aStart < aEnd && a.charAt(aStart) == '0') {
+                aStart++;
+            }
+            while (bStart < bEnd && b.charAt(bStart) == '0') {
+                bStart++;
+            }
+            int aLength = aEnd - aStart, bLength = bEnd - bStart;
+            if (aLength != bLength) {
+                return aLength < bLength ? -1 : 1;
+            }
+        }
+        else if (aNumeric != bNumeric) {
+            // Numbers (and missing segments) sort after qualifiers, so 1.0-beta < 1.0 < 1.0-1
+            return aNumeric ? 1 : -1;
+        }
+
+        int length = Math.min(aEnd - aStart, bEnd - bStart);
+        for (int k = 0; k < length; k++) {
+            char ca = Character.toLowerCase(a.charAt(aStart + k));
+            char cb = Character.toLowerCase(b.charAt(bStart + k));
+            if (ca != cb) {
+                return ca < cb ? -1 : 1;
+            }
+        }
+
+        int aLength = aEnd - aStart, bLength = bEnd - bStart;
+        return aLength == bLength ? 0 : aLength < bLength ? -1 : 1;
+    }
+
+    private static class Exact
+        extends ValueMatcher
+    {
+        private final String expected;
+
+        private Exact(final String expected) {
+            this.expected = expected;
+        }
+
+        @Override
+        public boolean matches(final String value) {
+            return expected == null ? value == null : expected.equalsIgnoreCase(value);
+        }
+
+        @Override
+        public String toString() {
+            return expected;
+        }
+    }
+
+    private static class Regex
+        extends ValueMatcher
+    {
+        private final Pattern pattern;
+
+        private Regex(final String regex) {
+            this.pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+        }
+
+        @Override
+        public boolean matches(final String value) {
+            return value != null && pattern.matcher(value).matches();
+        }
+
+        @Override
+        public String toString() {
+            return "/" + pattern.pattern() + "/";
+        }
+    }
+
+    /**
+     * Matches <tt>*</tt> (any characters) and <tt>?</tt> (one character), ignoring case.
+     */
+    private static class Glob
+        extends ValueMatcher
+    {
+        private final String glob;
+
+        private Glob(final String glob) {
+            this.glob = glob;
+        }
+
+        @Override
+        public boolean matches(final String value) {
+            if (value == null) {
+                return false;
+            }
+
+            // Backtrack only to the most recent star
+            int g = 0, v = 0, star = -1, mark = 0;
+            while (v < value.length()) {
+                if (g < glob.length() && (glob.charAt(g) == '?'
+                    || Character.toLowerCase(glob.charAt(g)) == Character.toLowerCase(value.charAt(v)))) {
+                    g++;
+                    v++;
+                }
+                else if (g < glob.length() && glob.charAt(g) == '*') {
+                    star = g++;
+                    mark = v;
+                }
+                else if (star != -1) {
+                    g = star + 1;
+                    v = ++mark;
+                }
+                else {
+                    return false;
+                }
+            }
+            while (g < glob.length() && glob.charAt(g) == '*') {
+                g++;
+            }
+            return g == glob.length();
+        }
+
+        @Override
+        public String toString() {
+            return glob;
+        }
+    }
+
+    private static class VersionRange
+        extends ValueMatcher
+    {
+        private final String expression;
+
+        private final String lower;
+
+        private final boolean lowerInclusive;
+
+        private final String upper;
+
+        private final boolean upperInclusive;
+
+        private VersionRange(final String expression, final String lower, final boolean lowerInclusive,
+                             final String upper, final boolean upperInclusive)
+        {
+            this.expression = expression;
+            this.lower = lower;
+            this.lowerInclusive = lowerInclusive;
+            this.upper = upper;
+            this.upperInclusive = upperInclusive;
+        }
+
+        private static VersionRange parse(final String expression) {
+            boolean lowerInclusive = expression.charAt(0) == '[';
+            boolean upperInclusive = expression.charAt(expression.length() - 1) == ']';
+            String body = expression.substring(1, expression.length() - 1);
+
+            int comma = body.indexOf(',');
+            if (comma == -1) {
+                // [1.6] is exactly that version
+                String version = body.trim();
+                return new VersionRange(expression, version, true, version, true);
+            }
+
+            String lower = body.substring(0, comma).trim();
+            String upper = body.substring(comma + 1).trim();
+            return new VersionRange(expression, lower.length() != 0 ? lower : null, lowerInclusive,
+                upper.length() != 0 ? upper : null, upperInclusive);
+        }
+
+        @Override
+        public boolean matches(final String value) {
+            if (value == null) {
+                return false;
+            }
+            if (lower != null) {
+                int result = compareVersions(value, lower);
+                if (result < 0 || result == 0 && !lowerInclusive) {
+                    return false;
+                }
+            }
+            if (upper != null) {
+                int result = compareVersions(value, upper);
+                if (result > 0 || result == 0 && !upperInclusive) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return expression;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2026 agent
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.hudsonci.plugins.vault.util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes zip archives from entries whose data has already been compressed.
+ *
+ * Unlike {@link java.util.zip.ZipOutputStream} this allows compressed data to be copied verbatim from another
+ * archive, or compressed elsewhere, and reports where each entry's data was written.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ZipWriter
+{
+    private static final int LOCAL_HEADER = 0x04034b50;
+
+    private static final int CENTRAL_HEADER = 0x02014b50;
+
+    private static final int END_HEADER = 0x06054b50;
+
+    private static final int ZIP64_END_HEADER = 0x06064b50;
+
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+
+    private static final int ZIP64_EXTRA = 0x0001;
+
+    private static final int VERSION_NEEDED = 20;
+
+    private static final int VERSION_NEEDED_ZIP64 = 45;
+
+    /** Unix, spec 4.5; so that external attributes carry the file mode. */
+    private static final int VERSION_MADE_BY = (3 << 8) | VERSION_NEEDED_ZIP64;
+
+    /** Names are UTF-8 encoded. */
+    private static final int FLAG_UTF8 = 1 << 11;
+
+    private static final int FILE_MODE = 0100644;
+
+    private static final int DIR_MODE = 040755;
+
+    /** Sizes and offsets from this value on are stored in ZIP64 extra fields, this value marking the field. */
+    private static final long MAX_OFFSET = 0xFFFFFFFFL;
+
+    /** Entry counts from this value on are stored in the ZIP64 end of central directory record. */
+    private static final int MAX_ENTRIES = 0xFFFF;
+
+    private final OutputStream output;
+
+    private final List<Header> headers = new ArrayList<Header>();
+
+    private long offset;
+
+    public ZipWriter(final OutputStream output) {
+        assert output != null;
+        this.output = new BufferedOutputStream(output, 64 * 1024);
+    }
+
+    /**
+     * Returns the size of the extra field of the local header written for an entry of the given sizes.
+     */
+    public static int getLocalExtraSize(final long size, final long compressedSize) {
+        return isZip64(size, compressedSize) ? 20 : 0;
+    }
+
+    private static boolean isZip64(final long size, final long compressedSize) {
+        return size >= MAX_OFFSET || compressedSize >= MAX_OFFSET;
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    public void putDirectory(final String name, final long time) throws IOException {
+        assert name != null;
+        assert name.endsWith("/");
+
+        writeHeader(new Header(name, time, ZipEntry.STORED, 0, 0, 0, DIR_MODE));
+    }
+
+    /**
+     * Add an entry, copying <tt>compressedSize</tt> bytes of already compressed data from the given stream.
+     *
+     * @return  The offset of the entry data in the archive.
+     */
+    public long putEntry(final String name, final long time, final int method, final long crc, final long size,
+                         final long compressedSize, final InputStream data)
+        throws IOException
+    {
+        assert name != null;
+        assert data != null;
+
+        long dataOffset = writeHeader(new Header(name, time, method, crc, size, compressedSize, FILE_MODE));
+
+        byte[] buff = new byte[64 * 1024];
+        long remaining = compressedSize;
+        while (remaining > 0) {
+            int n = data.read(buff, 0, (int) Math.min(buff.length, remaining));
+            if (n == -1) {
+                throw new IOException("Unexpected end of data for entry: " + name);
+            }
+            write(buff, 0, n);
+            remaining -= n;
+        }
+
+        return dataOffset;
+    }
+
+    /**
+     * Write the central directory and flush.  Does not close the underlying stream.
+     *
+     * When the entry count, or the size or offset of the central directory, do not fit the end of central directory
+     * record, ZIP64 end records are written before it.
+     */
+    public void finish() throws IOException {
+        long start = offset;
+        for (Header header : headers) {
+            boolean large = isZip64(header.size, header.compressedSize);
+            boolean far = header.offset >= MAX_OFFSET;
+            int extra = (large ? 16 : 0) + (far ? 8 : 0);
+
+            writeInt(CENTRAL_HEADER);
+            writeShort(VERSION_MADE_BY);
+            writeCommon(header, large || far, large, extra == 0 ? 0 : extra + 4);
+            writeShort(0); // comment length
+            writeShort(0); // disk number
+            writeShort(0); // internal attributes
+            writeInt(header.mode << 16);
+            writeInt((int) Math.min(header.offset, MAX_OFFSET));
+            write(header.name, 0, header.name.length);
+
+            if (extra != 0) {
+                writeShort(ZIP64_EXTRA);
+                writeShort(extra);
+                if (large) {
+                    writeLong(header.size);
+                    writeLong(header.compressedSize);
+                }
+                if (far) {
+                    writeLong(header.offset);
+                }
+            }
+        }
+        long size = offset - start;
+
+        int count = headers.size();
+        if (count >= MAX_ENTRIES || size >= MAX_OFFSET || start >= MAX_OFFSET) {
+            long end = offset;
+
+            writeInt(ZIP64_END_HEADER);
+            writeLong(44); // size of the remaining record
+            writeShort(VERSION_MADE_BY);
+            writeShort(VERSION_NEEDED_ZIP64);
+            writeInt(0); // disk number
+            writeInt(0); // central directory disk
+            writeLong(count);
+            writeLong(count);
+            writeLong(size);
+            writeLong(start);
+
+            writeInt(ZIP64_LOCATOR);
+            writeInt(0); // end record disk
+            writeLong(end);
+            writeInt(1); // total disks
+        }
+
+        writeInt(END_HEADER);
+        writeShort(0); // disk number
+        writeShort(0); // central directory disk
+        writeShort(Math.min(count, MAX_ENTRIES));
+        writeShort(Math.min(count, MAX_ENTRIES));
+        writeInt((int) Math.min(size, MAX_OFFSET));
+        writeInt((int) Math.min(start, MAX_OFFSET));
+        writeShort(0); // comment length
+
+        output.flush();
+    }
+
+    private long writeHeader(final Header header) throws IOException {
+        header.offset = offset;
+        headers.add(header);
+
+        boolean large = isZip64(header.size, header.compressedSize);
+
+        writeInt(LOCAL_HEADER);
+        writeCommon(header, large, large, getLocalExtraSize(header.size, header.compressedSize));
+        write(header.name, 0, header.name.length);
+
+        if (large) {
+            writeShort(ZIP64_EXTRA);
+            writeShort(16);
+            writeLong(header.size);
+            writeLong(header.compressedSize);
+        }
+
+        return offset;
+    }
+
+    /**
+     * Fields shared by the local and central headers, from <em>version needed</em> up to <em>extra length</em>.
+     *
+     * @param zip64     Whether the header has a ZIP64 extra field.
+     * @param large     Whether the sizes are in the ZIP64 extra field.
+     */
+    private void writeCommon(final Header header, final boolean zip64, final boolean large, final int extraLength)
+        throws IOException
+    {
+        writeShort(zip64 ? VERSION_NEEDED_ZIP64 : VERSION_NEEDED);
+        writeShort(FLAG_UTF8);
+        writeShort(header.method);
+        writeInt(header.dosTime);
+        writeInt((int) header.crc);
+        writeInt((int) (large ? MAX_OFFSET : header.compressedSize));
+        writeInt((int) (large ? MAX_OFFSET : header.size));
+        writeShort(header.name.length);
+        writeShort(extraLength);
+    }
+
+    private void writeShort(final int value) throws IOException {
+        output.write(value & 0xFF);
+        output.write((value >>> 8) & 0xFF);
+        offset += 2;
+    }
+
+    private void writeInt(final int value) throws IOException {
+        writeShort(value & 0xFFFF);
+        writeShort((value >>> 16) & 0xFFFF);
+    }
+
+    private void writeLong(final long value) throws IOException {
+        writeInt((int) value);
+        writeInt((int) (value >>> 32));
+    }
+
+    private void write(final byte[] bytes, final int off, final int len) throws IOException {
+        output.write(bytes, off, len);
+        offset += len;
+    }
+
+    private static int toDosTime(final long time) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(time);
+
+        int year = cal.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+
+        return (year - 1980) << 25
+            | (cal.get(Calendar.MONTH) + 1) << 21
+            | cal.get(Calendar.DAY_OF_MONTH) << 16
+            | cal.get(Calendar.HOUR_OF_DAY) << 11
+            | cal.get(Calendar.MINUTE) << 5
+            | cal.get(Calendar.SECOND) >> 1;
+    }
+
+    private static class Header
+    {
+        private final byte[] name;
+
+        private final int dosTime;
+
+        private final int method;
+
+        private final long crc;
+
+        private final long size;
+
+        private final long compressedSize;
+
+        private final int mode;
+
+        private long offset;
+
+        private Header(final String name, final long time, final int method, final long crc, final long size,
+                       final long compressedSize, final int mode)
+            throws IOException
+        {
+            this.name = name.getBytes("UTF-8");
+            this.dosTime = toDosTime(time);
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.mode = mode;
+        }
+    }
+}